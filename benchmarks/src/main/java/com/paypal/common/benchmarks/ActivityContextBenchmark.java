@@ -0,0 +1,77 @@
+package com.paypal.common.benchmarks;
+
+import com.paypal.common.activities.ActivityContext;
+import com.paypal.common.activities.ActivityContextKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the ActivityContext operations activities perform on every run
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActivityContextBenchmark {
+    private static final int KEY_COUNT = 32;
+    private static final ActivityContextKey[] KEYS = new ActivityContextKey[KEY_COUNT];
+    private static final ActivityContextKey MISSING_KEY = new ActivityContextKey("benchmark.missing");
+
+    static {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            KEYS[i] = new ActivityContextKey("benchmark.key" + i);
+        }
+    }
+
+    private ActivityContext populated;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        populated = new ActivityContext();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            populated.addContext(KEYS[i], "value" + i);
+        }
+    }
+
+    private ActivityContextKey nextKey() {
+        next = (next + 1) & (KEY_COUNT - 1);
+        return KEYS[next];
+    }
+
+    @Benchmark
+    public ActivityContext addContext() {
+        ActivityContext activityContext = new ActivityContext();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            activityContext.addContext(KEYS[i], KEYS);
+        }
+        return activityContext;
+    }
+
+    @Benchmark
+    public Object get() {
+        return populated.get(nextKey());
+    }
+
+    @Benchmark
+    public boolean contextExistsAndNotNull() {
+        return populated.contextExistsAndNotNull(nextKey());
+    }
+
+    @Benchmark
+    public boolean contextExistsAndNotNullMissing() {
+        return populated.contextExistsAndNotNull(MISSING_KEY);
+    }
+}
@@ -0,0 +1,78 @@
+package com.paypal.common.benchmarks;
+
+import com.paypal.common.activities.ActivityResult;
+import com.paypal.common.activities.ActivityResultMessageCategory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of filtering the messages of an ActivityResult by category.  Messages are spread over the categories
+ * with one ERROR message in every hundred.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActivityResultBenchmark {
+    @Param({"10", "1000"})
+    private int messageCount;
+
+    private ActivityResult activityResult;
+
+    @Setup
+    public void setUp() {
+        activityResult = new ActivityResult();
+        for (int i = 0; i < messageCount; i++) {
+            ActivityResultMessageCategory category;
+            if (i % 100 == 99) {
+                category = ActivityResultMessageCategory.ERROR;
+            }
+            else if (i % 10 == 9) {
+                category = ActivityResultMessageCategory.WARNING;
+            }
+            else {
+                category = ActivityResultMessageCategory.INFO;
+            }
+            activityResult.addMessage(category, "message " + i);
+        }
+    }
+
+    @Benchmark
+    public List<String> getMessages() {
+        return activityResult.getMessages();
+    }
+
+    @Benchmark
+    public List<String> getMessagesByCategory() {
+        return activityResult.getMessages(ActivityResultMessageCategory.ERROR);
+    }
+
+    @Benchmark
+    public List<String> getMessagesMinCategory() {
+        return activityResult.getMessagesMinCategory(ActivityResultMessageCategory.WARNING);
+    }
+
+    @Benchmark
+    public List<String> getMessageViewMinCategory() {
+        return activityResult.getMessageViewMinCategory(ActivityResultMessageCategory.WARNING);
+    }
+
+    @Benchmark
+    public boolean hasErrors() {
+        return activityResult.hasErrors();
+    }
+}
@@ -0,0 +1,91 @@
+package com.paypal.common.benchmarks;
+
+import com.paypal.common.activities.Activity;
+import com.paypal.common.activities.ActivityContext;
+import com.paypal.common.activities.ActivityContextKey;
+import com.paypal.common.activities.ActivityExecution;
+import com.paypal.common.activities.ActivityGraph;
+import com.paypal.common.activities.ActivityResult;
+import com.paypal.common.activities.ActivityStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of performing an activity tree: a deep tree is a chain of nested activities, a wide tree is a root with
+ * every other activity as a direct sub-activity.  Both trees have the same number of activities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActivityTreeBenchmark {
+    @Param({"deep", "wide"})
+    private String shape;
+
+    @Param({"10", "100"})
+    private int size;
+
+    private Activity root;
+    private ActivityGraph graph;
+
+    @Setup
+    public void setUp() {
+        root = buildTree();
+        graph = new ActivityGraph(buildTree());
+    }
+
+    private Activity buildTree() {
+        Activity treeRoot = new NoOpActivity();
+        Activity parent = treeRoot;
+        for (int i = 1; i < size; i++) {
+            Activity child = new NoOpActivity();
+            parent.addSubActivity(child);
+            if ("deep".equals(shape)) {
+                parent = child;
+            }
+        }
+        return treeRoot;
+    }
+
+    @Benchmark
+    public ActivityResult performActivity() throws Exception {
+        return root.performActivity(new ActivityContext());
+    }
+
+    @Benchmark
+    public ActivityExecution executeGraph() {
+        return graph.execute(new ActivityContext());
+    }
+
+    /**
+     * Performs its sub-activities and takes on their overall status
+     */
+    static class NoOpActivity extends Activity {
+        @Override
+        protected List<ActivityContextKey> getRequiredContextKeys() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public ActivityResult performActivity(ActivityContext activityContext) throws Exception {
+            performSubActivities(activityContext);
+            setActivityResultStatus(getSubActivities().isEmpty() ? ActivityStatus.SUCCESS : getOverallSubActivityStatus());
+            return getActivityResult();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.paypal.common.benchmarks;
+
+import com.paypal.common.dal.ConnectionManager;
+import com.paypal.common.exceptions.ConfigException;
+import com.paypal.common.exceptions.DalException;
+import com.paypal.common.utils.PropertyManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of borrowing a connection from the ConnectionManager pool and returning it, against an in-memory H2
+ * database.  The contended benchmark uses more threads than the pool has connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionManagerBenchmark {
+
+    @Setup(Level.Trial)
+    public void setUp() throws ConfigException {
+        //the properties must be loaded before ConnectionManager is first used, since it configures the pool then
+        Properties properties = new Properties();
+        properties.setProperty(ConnectionManager.PROP_DB_DRIVER, "org.h2.Driver");
+        properties.setProperty(ConnectionManager.PROP_DB_CONNECTION_URL, "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+        properties.setProperty(ConnectionManager.PROP_DB_USERNAME, "sa");
+        properties.setProperty(ConnectionManager.PROP_DB_PASSWORD, "sa");
+        PropertyManager.INSTANCE.loadCustomProperties(properties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ConnectionManager.INSTANCE.shutdownConnPool();
+    }
+
+    @Benchmark
+    public boolean getConnection() throws DalException, SQLException {
+        Connection connection = ConnectionManager.INSTANCE.getConnection();
+        try {
+            return connection.isClosed();
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean getConnectionContended() throws DalException, SQLException {
+        return getConnection();
+    }
+
+    @Benchmark
+    public int getConnectionAndQuery() throws DalException, SQLException {
+        Connection connection = ConnectionManager.INSTANCE.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet resultSet = statement.executeQuery("SELECT 1");
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+            finally {
+                statement.close();
+            }
+        }
+        finally {
+            connection.close();
+        }
+    }
+}
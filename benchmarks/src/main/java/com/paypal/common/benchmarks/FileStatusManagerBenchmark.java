@@ -0,0 +1,105 @@
+package com.paypal.common.benchmarks;
+
+import com.paypal.common.utils.EligibleFileScan;
+import com.paypal.common.utils.FileStatusManager;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking the status of every file in a large directory.  Half of the files have already been
+ * processed, i.e. have a stat file or an entry in the directory index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileStatusManagerBenchmark {
+    @Param({"1000", "10000"})
+    private int fileCount;
+
+    @Param({"SIBLING_FILE", "DIRECTORY_INDEX"})
+    private FileStatusManager.StatusStore statusStore;
+
+    private File directory;
+    private File[] files;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        FileStatusManager.setStatusStore(statusStore);
+        directory = File.createTempFile("file-status-benchmark", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        files = new File[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            files[i] = new File(directory, "input" + i + ".csv");
+            FileUtils.writeStringToFile(files[i], "id,amount\n" + i + ",100\n");
+        }
+        for (int i = 0; i < fileCount; i += 2) {
+            FileStatusManager.createStatFile(files[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+        FileStatusManager.setStatusStore(FileStatusManager.StatusStore.SIBLING_FILE);
+    }
+
+    @Benchmark
+    public int getFileStatusOfDirectory() throws Exception {
+        int eligible = 0;
+        for (File file : files) {
+            if (FileStatusManager.getFileStatus(file) == FileStatusManager.FileStatus.ELIGIBLE_TO_PROCESS) {
+                eligible++;
+            }
+        }
+        return eligible;
+    }
+
+    @Benchmark
+    public int listAndGetFileStatus() throws Exception {
+        int eligible = 0;
+        File[] listed = directory.listFiles();
+        for (File file : listed) {
+            if (!FileStatusManager.isStatusFile(file)
+                    && FileStatusManager.getFileStatus(file) == FileStatusManager.FileStatus.ELIGIBLE_TO_PROCESS) {
+                eligible++;
+            }
+        }
+        return eligible;
+    }
+
+    @Benchmark
+    public int scanEligible() throws Exception {
+        int eligible = 0;
+        EligibleFileScan scan = FileStatusManager.scanEligible(directory.toPath(), null);
+        try {
+            while (scan.hasNext()) {
+                scan.next();
+                eligible++;
+            }
+        } finally {
+            scan.close();
+        }
+        return eligible;
+    }
+}
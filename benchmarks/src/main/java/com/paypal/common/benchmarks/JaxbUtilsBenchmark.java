@@ -0,0 +1,78 @@
+package com.paypal.common.benchmarks;
+
+import com.paypal.common.exceptions.ConfigException;
+import com.paypal.common.utils.JaxbUtils;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of unmarshalling a small configuration file, from a file path and from a stream
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JaxbUtilsBenchmark {
+    private static final int COLUMN_COUNT = 20;
+    private File xmlFile;
+    private byte[] xml;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StringBuilder builder = new StringBuilder("<fileDefinition name=\"benchmark\">");
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            builder.append("<column>column").append(i).append("</column>");
+        }
+        builder.append("</fileDefinition>");
+        xml = builder.toString().getBytes("UTF-8");
+        xmlFile = File.createTempFile("jaxb-benchmark", ".xml");
+        FileUtils.writeByteArrayToFile(xmlFile, xml);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(xmlFile);
+    }
+
+    @Benchmark
+    public FileDefinition unmarshalFile() throws ConfigException {
+        return JaxbUtils.unmarsal(xmlFile.getPath(), FileDefinition.class);
+    }
+
+    @Benchmark
+    public FileDefinition unmarshalStream() throws ConfigException {
+        return JaxbUtils.unmarsal(new ByteArrayInputStream(xml), FileDefinition.class);
+    }
+
+    @XmlRootElement
+    public static class FileDefinition {
+        @XmlAttribute
+        public String name;
+
+        @XmlElement(name = "column")
+        public List<String> columns = new ArrayList<String>();
+    }
+}
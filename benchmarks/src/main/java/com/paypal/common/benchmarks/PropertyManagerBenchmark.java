@@ -0,0 +1,62 @@
+package com.paypal.common.benchmarks;
+
+import com.paypal.common.exceptions.ConfigException;
+import com.paypal.common.utils.PropertyManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading properties from the PropertyManager, from one thread and from several
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyManagerBenchmark {
+    private static final int PROPERTY_COUNT = 100;
+
+    @Setup
+    public void setUp() throws ConfigException {
+        Properties properties = new Properties();
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            properties.setProperty("benchmark.property" + i, "value" + i);
+        }
+        properties.setProperty("benchmark.flag", "true");
+        PropertyManager.INSTANCE.loadCustomProperties(properties);
+    }
+
+    @Benchmark
+    public String getProperty() {
+        return PropertyManager.INSTANCE.getProperty("benchmark.property50");
+    }
+
+    @Benchmark
+    public String getPropertyWithDefault() {
+        return PropertyManager.INSTANCE.getProperty("benchmark.absent", "default");
+    }
+
+    @Benchmark
+    public boolean getBooleanProperty() {
+        return PropertyManager.INSTANCE.getBooleanProperty("benchmark.flag", false);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String getPropertyContended() {
+        return PropertyManager.INSTANCE.getProperty("benchmark.property50");
+    }
+}
@@ -1,11 +1,17 @@
 package com.paypal.common.activities;
 
+import com.paypal.common.exceptions.ActivityException;
 import org.apache.log4j.Logger;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Created with IntelliJ IDEA.
@@ -19,6 +25,12 @@ public abstract class Activity {
     protected StopWatch stopWatch = new Log4JStopWatch();
     protected ActivityResult activityResult = new ActivityResult();
     private ArrayList<Activity> subActivities = new ArrayList<Activity>();
+    private ExecutorService subActivityExecutor = null;
+    private ActivityExecutionPolicy executionPolicy = null;
+    private boolean frozen = false;
+    private Activity parentActivity = null;
+    private volatile ActivityStats classStats = null;
+    private volatile ActivityStats pathStats = null;
 
     /**
      * Each subclass must implement this method which is used to check the validity of the current context
@@ -27,9 +39,33 @@ public abstract class Activity {
      */
     protected abstract List<ActivityContextKey> getRequiredContextKeys();
 
+    /**
+     * Returns the keys this activity adds to the ActivityContext when it is performed.
+     * Subclasses should override this when sibling activities depend on their output so that
+     * performSubActivitiesInDependencyOrder can schedule them.  Defaults to an empty list.
+     *
+     * @return List&lt;ActivityContextKey&gt;
+     */
+    protected List<ActivityContextKey> getProducedContextKeys() {
+        return Collections.emptyList();
+    }
 
     /**
-     * Returns the list sub activities that should be performed as part of this activity
+     * Returns whether or not the outcome of this activity depends only on the values of its required context keys,
+     * so that it can be cached and reused when it is performed as a sub-activity with the same values.
+     * A cacheable activity must be idempotent, add every value it puts into the context to getProducedContextKeys
+     * and have no other side effects.  The values it produces are shared with every later run that reuses its outcome,
+     * so they must be immutable.  Defaults to false.
+     *
+     * @return boolean
+     */
+    protected boolean isCacheable() {
+        return false;
+    }
+
+    /**
+     * Returns the list sub activities that should be performed as part of this activity.
+     * Once the activity is part of an ActivityGraph the list can no longer be modified.
      *
      * @return ArrayList
      */
@@ -38,12 +74,25 @@ public abstract class Activity {
     }
 
     /**
-     * Returns the result of this activity
+     * Returns the result of this activity.
+     * When this activity is performed as part of an ActivityGraph, the result belongs to the current ActivityExecution.
      *
      * @return ActivityResult
      */
     public ActivityResult getActivityResult() {
-        return this.activityResult;
+        ActivityExecution execution = ActivityExecution.current();
+        return execution == null ? this.activityResult : execution.getActivityResult(this);
+    }
+
+    /**
+     * Returns the stop watch of this activity.
+     * When this activity is performed as part of an ActivityGraph, the stop watch belongs to the current ActivityExecution.
+     *
+     * @return StopWatch
+     */
+    public StopWatch getStopWatch() {
+        ActivityExecution execution = ActivityExecution.current();
+        return execution == null ? this.stopWatch : execution.getStopWatch(this);
     }
 
     /**
@@ -51,7 +100,7 @@ public abstract class Activity {
      * @param message - the String message to add to the result
      */
     public void addActivityResultMessage(String message) {
-        this.activityResult.addMessage(message);
+        this.getActivityResult().addMessage(message);
     }
 
     /**
@@ -60,7 +109,26 @@ public abstract class Activity {
      * @param message - the String message to add to the result
      */
     public void addActivityResultMessage(ActivityResultMessageCategory msgCategory, String message) {
-        this.activityResult.addMessage(msgCategory, message);
+        this.getActivityResult().addMessage(msgCategory, message);
+    }
+
+    /**
+     * Add a result message from a message template.  The message string is built when it is first read.
+     * @param template - the ActivityMessageTemplate
+     * @param arguments - the values for the template placeholders
+     */
+    public void addActivityResultMessage(ActivityMessageTemplate template, Object... arguments) {
+        this.getActivityResult().addMessage(template, arguments);
+    }
+
+    /**
+     * Add a result message from a message template.  The message string is built when it is first read.
+     * @param msgCategory - ActivityResultMessageCategory
+     * @param template - the ActivityMessageTemplate
+     * @param arguments - the values for the template placeholders
+     */
+    public void addActivityResultMessage(ActivityResultMessageCategory msgCategory, ActivityMessageTemplate template, Object... arguments) {
+        this.getActivityResult().addMessage(msgCategory, template, arguments);
     }
 
     /**
@@ -69,7 +137,7 @@ public abstract class Activity {
      * @param atIndex - int
      */
     public void addActivityResultMessage(String message, int atIndex) {
-        this.activityResult.addMessage(message, atIndex);
+        this.getActivityResult().addMessage(message, atIndex);
     }
 
     /**
@@ -78,7 +146,7 @@ public abstract class Activity {
      * @return void
      */
     public void addActivityResultMessage(ActivityResultMessageCategory msgCategory, String message, int atIndex) {
-        this.activityResult.addMessage(msgCategory, message, atIndex);
+        this.getActivityResult().addMessage(msgCategory, message, atIndex);
     }
 
     /**
@@ -87,7 +155,7 @@ public abstract class Activity {
      * @return void
      */
     public void setActivityResultStatus(ActivityStatus status) {
-        this.activityResult.setStatus(status);
+        this.getActivityResult().setStatus(status);
     }
 
     /**
@@ -96,7 +164,7 @@ public abstract class Activity {
      * @return void
      */
     public void addActivityResultMessages(List<String> messages) {
-        this.activityResult.addMessages(messages);
+        this.getActivityResult().addMessages(messages);
     }
 
     /**
@@ -105,7 +173,7 @@ public abstract class Activity {
      * @return void
      */
     public void addActivityResultMessages(ActivityResultMessageCategory msgCategory, List<String> messages) {
-        this.activityResult.addMessages(msgCategory, new ArrayList<String>(messages));
+        this.getActivityResult().addMessages(msgCategory, new ArrayList<String>(messages));
     }
 
     /**
@@ -115,34 +183,292 @@ public abstract class Activity {
      * @return boolean
      */
     public boolean addSubActivity(Activity subActivity) {
+        checkNotFrozen();
         if (subActivity.getClass().equals(this.getClass())) {
             logger.warn("Skip adding activity: " + this.getClass().getSimpleName() + " to it's own subActivity list.");
             return false;
         }
         else {
+            subActivity.parentActivity = this;
+            subActivity.clearPathStats();
             return this.subActivities.add(subActivity);
         }
     }
 
     /**
-     * Iterate through the sub-activities
+     * Returns the path of this activity in its tree, made of the simple class names from the root down,
+     * e.g. RootActivity/AmountActivity.  If an activity is added to several parents, the last one is used.
+     *
+     * @return String
+     */
+    public String getActivityPath() {
+        String name = this.getClass().getSimpleName();
+        return this.parentActivity == null ? name : this.parentActivity.getActivityPath() + "/" + name;
+    }
+
+    ActivityStats getClassStats() {
+        ActivityStats stats = this.classStats;
+        if (stats == null) {
+            stats = ActivityMetrics.INSTANCE.statsForClass(this.getClass());
+            this.classStats = stats;
+        }
+        return stats;
+    }
+
+    ActivityStats getPathStats() {
+        ActivityStats stats = this.pathStats;
+        if (stats == null) {
+            Activity parent = this.parentActivity;
+            if (parent == null) {
+                stats = ActivityMetrics.INSTANCE.statsForRootPath(this.getClass());
+            }
+            else {
+                stats = ActivityMetrics.INSTANCE.statsForChildPath(parent.getPathStats(), this.getClass());
+            }
+            this.pathStats = stats;
+        }
+        return stats;
+    }
+
+    /**
+     * Forget the path statistics of this activity and its sub-activities after it has moved to another parent.
+     * A sub-activity's statistics are only resolved after its parent's, so the walk stops at the first activity
+     * that has none.
+     */
+    private void clearPathStats() {
+        if (this.pathStats == null) {
+            return;
+        }
+        this.pathStats = null;
+        for (Activity subActivity : this.subActivities) {
+            subActivity.clearPathStats();
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new IllegalStateException(this.getClass().getSimpleName() + " is part of an ActivityGraph and can no longer be modified");
+        }
+    }
+
+    /**
+     * Prevent further changes to this activity tree so it can be shared by concurrent runs of an ActivityGraph
+     */
+    void freeze() {
+        if (this.frozen) {
+            return;
+        }
+        this.frozen = true;
+        this.subActivities = new FrozenActivityList(this.subActivities);
+        //resolve the statistics now so that runs of the graph only read them
+        getClassStats();
+        getPathStats();
+        for (Activity subActivity : this.subActivities) {
+            subActivity.freeze();
+        }
+    }
+
+    /**
+     * Returns the executor used to perform sub-activities in parallel, or null if they are performed sequentially
+     *
+     * @return ExecutorService
+     */
+    public ExecutorService getSubActivityExecutor() {
+        return this.subActivityExecutor;
+    }
+
+    /**
+     * Opt-in to parallel execution of the sub-activities.  When an executor is set, sibling sub-activities are
+     * submitted to it at the same time and performSubActivities waits until all of them are complete.
+     * Set to null (the default) to perform the sub-activities sequentially on the caller's thread.
+     * The ActivityContext passed to performSubActivities is shared by all sub-activities, so it must be safe for
+     * concurrent use (e.g. ConcurrentActivityContext) when an executor is set.  See ActivityExecutors for common
+     * executor configurations.
+     * <p/>
+     * The same executor can be set on activities at several levels of a tree.  A fork-join pool adds a thread while
+     * one of its threads waits for sub-activities, so every level runs in parallel.  Any other executor only runs the
+     * top level in parallel: an activity performed by one of its tasks performs its own sub-activities on that
+     * thread, because waiting for tasks queued behind it would deadlock the pool once the tree is deeper than the
+     * pool is wide.
+     *
+     * @param subActivityExecutor - the executor to perform sub-activities on, or null for sequential execution
+     * @throws IllegalStateException - if this activity is part of an ActivityGraph
+     */
+    public void setSubActivityExecutor(ExecutorService subActivityExecutor) {
+        checkNotFrozen();
+        this.subActivityExecutor = subActivityExecutor;
+    }
+
+    /**
+     * Returns the policy that controls when sub-activities are skipped, or null if all of them are always performed
+     *
+     * @return ActivityExecutionPolicy
+     */
+    public ActivityExecutionPolicy getExecutionPolicy() {
+        return this.executionPolicy;
+    }
+
+    /**
+     * Set the fail-fast, time budget and cancellation policy for performing sub-activities
+     *
+     * @param executionPolicy - the policy, or null (the default) to always perform every sub-activity
+     * @throws IllegalStateException - if this activity is part of an ActivityGraph
+     */
+    public void setExecutionPolicy(ActivityExecutionPolicy executionPolicy) {
+        checkNotFrozen();
+        this.executionPolicy = executionPolicy;
+    }
+
+    /**
+     * Iterate through the sub-activities.
+     * If a sub-activity executor has been set, the sub-activities are performed in parallel and this method
+     * returns once all of them are complete.  Sub-activities are marked SKIPPED instead of being performed once the
+     * execution policy stops the run or the deadline in the context passes.
      *
      * @param activityContext - The current activityContext
      */
     public void performSubActivities(ActivityContext activityContext) {
-        for (Activity subActivity : this.subActivities) {
+        ExecutorService executor = SubActivityRun.executorFor(this.subActivityExecutor);
+        if (!SubActivityRun.isNeeded(activityContext, this.executionPolicy)) {
+            if (executor == null || this.subActivities.size() < 2) {
+                for (Activity subActivity : this.subActivities) {
+                    performSubActivity(subActivity, activityContext);
+                }
+                return;
+            }
+        }
+        SubActivityRun run = new SubActivityRun(this, this.subActivities, activityContext, this.executionPolicy);
+        if (executor == null || this.subActivities.size() < 2) {
+            for (int i = 0; i < this.subActivities.size(); i++) {
+                run.perform(i);
+            }
+            run.awaitCompletion();
+        }
+        else {
+            performSubActivitiesInParallel(run, executor);
+        }
+    }
+
+    /**
+     * Perform the sub-activities in an order derived from their required and produced context keys rather than
+     * the order in which they were added.  A sub-activity is started as soon as every sibling that produces one of
+     * its required keys is complete.  If a sub-activity executor has been set, independent sub-activities are
+     * performed in parallel.  The execution policy and the deadline in the context apply as in performSubActivities;
+     * sub-activities that depend on a skipped sub-activity are skipped too.
+     *
+     * @param activityContext - The current activityContext
+     * @return ActivityScheduleReport - the timings and critical path of the run
+     * @throws ActivityException - if the dependencies between the sub-activities are circular
+     */
+    public ActivityScheduleReport performSubActivitiesInDependencyOrder(ActivityContext activityContext) throws ActivityException {
+        return new ActivityScheduler(this).execute(activityContext, this.subActivityExecutor, this.executionPolicy);
+    }
+
+    /**
+     * Submit every sub-activity to the sub-activity executor and wait for all of them to complete
+     *
+     * @param run - the state of this call
+     * @param executor - the sub-activity executor
+     */
+    private void performSubActivitiesInParallel(final SubActivityRun run, ExecutorService executor) {
+        for (int i = 0; i < this.subActivities.size(); i++) {
+            final int index = i;
+            Runnable task = ActivityExecution.propagate(new Runnable() {
+                @Override
+                public void run() {
+                    run.perform(index);
+                }
+            });
             try {
-                logger.debug("Performing " + subActivity.getClass().getSimpleName() + " sub-activity.");
-                subActivity.performActivity(activityContext);
+                run.submit(index, task, executor);
+            }
+            catch (RejectedExecutionException e) {
+                logger.warn("Sub-activity executor rejected " + this.subActivities.get(index).getClass().getSimpleName() + ". Performing it on the current thread.");
+                task.run();
+            }
+        }
+        run.awaitCompletion();
+    }
+
+    /**
+     * Perform a single sub-activity, recording an UNEXPECTED_SYSTEM_ERROR status if it throws an exception.
+     * If the sub-activity is cacheable and has been performed before with the same inputs, the cached outcome is
+     * applied instead (see ActivityResultCache).
+     *
+     * @param subActivity - the sub-activity to perform
+     * @param activityContext - The current activityContext
+     */
+    void performSubActivity(Activity subActivity, ActivityContext activityContext) {
+        ActivityResultCache.Outcome outcome = performSubActivityAndCapture(subActivity, activityContext);
+        if (outcome != null) {
+            ActivityResultCache.INSTANCE.put(outcome);
+        }
+    }
 
+    /**
+     * Same as performSubActivity, but rather than caching the outcome of a cacheable sub-activity, returns it so that
+     * the caller can cache it once it knows the run was not cancelled
+     *
+     * @return ActivityResultCache.Outcome - the outcome to cache, or null if the run must not be cached
+     */
+    ActivityResultCache.Outcome performSubActivityAndCapture(Activity subActivity, ActivityContext activityContext) {
+        boolean instrumented = ActivityMetrics.INSTANCE.isEnabled();
+        long start = instrumented ? System.nanoTime() : 0;
+        ActivityResultCache cache = ActivityResultCache.INSTANCE;
+        ActivityResultCache.Fingerprint fingerprint = null;
+        List<ActivityResultMessage> previousMessages = null;
+        try {
+            if (subActivity.isCacheable() && cache.isEnabled()) {
+                fingerprint = cache.fingerprint(subActivity, activityContext);
+                ActivityResultCache.Outcome outcome = cache.get(fingerprint);
+                if (outcome != null) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Using cached result of " + subActivity.getClass().getSimpleName() + " sub-activity.");
+                    }
+                    outcome.applyTo(subActivity, activityContext);
+                    return null;
+                }
+                previousMessages = new ArrayList<ActivityResultMessage>(subActivity.getActivityResult().getResultMessages());
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Performing " + subActivity.getClass().getSimpleName() + " sub-activity.");
+            }
+            subActivity.performActivity(activityContext);
+            //only reached when the run returned normally
+            return fingerprint == null ? null
+                    : cache.capture(fingerprint, subActivity, activityContext, addedMessages(subActivity, previousMessages));
+        }
+        catch (Exception e) {
+            subActivity.setActivityResultStatus(ActivityStatus.UNEXPECTED_SYSTEM_ERROR);
+            subActivity.addActivityResultMessage(ActivityMessages.SUB_ACTIVITY_EXCEPTION, this.getClass());
+            subActivity.addActivityResultMessage(e.getMessage());
+            logger.fatal(e);
+            return null;
+        }
+        finally {
+            if (instrumented) {
+                ActivityMetrics.INSTANCE.record(subActivity, System.nanoTime() - start, subActivity.getActivityResult().getStatus());
             }
-            catch (Exception e) {
-                subActivity.setActivityResultStatus(ActivityStatus.UNEXPECTED_SYSTEM_ERROR);
-                subActivity.addActivityResultMessage("An unexpected exception occurred while performing sub-activity " + this.getClass().getSimpleName());
-                subActivity.addActivityResultMessage(e.getMessage());
-                logger.fatal(e);
+        }
+    }
+
+    /**
+     * Returns the messages of a sub-activity that are not in the list of messages it had before it was performed
+     */
+    private static List<ActivityResultMessage> addedMessages(Activity subActivity, List<ActivityResultMessage> previousMessages) {
+        List<ActivityResultMessage> messages = subActivity.getActivityResult().getResultMessages();
+        if (previousMessages.isEmpty()) {
+            return new ArrayList<ActivityResultMessage>(messages);
+        }
+        Set<ActivityResultMessage> previous = Collections.newSetFromMap(new IdentityHashMap<ActivityResultMessage, Boolean>());
+        previous.addAll(previousMessages);
+        List<ActivityResultMessage> added = new ArrayList<ActivityResultMessage>();
+        for (ActivityResultMessage message : messages) {
+            if (!previous.contains(message)) {
+                added.add(message);
             }
         }
+        return added;
     }
 
 
@@ -154,6 +480,31 @@ public abstract class Activity {
      */
     public abstract ActivityResult performActivity(ActivityContext activityContext) throws Exception;
 
+    /**
+     * Perform this activity as the top of its tree and record its latency and status in ActivityMetrics, as
+     * ActivityGraph.execute does for its root.  Sub-activities are recorded by performSubActivities whichever way
+     * the root is performed.  If performActivity throws an exception, the run is recorded as UNEXPECTED_SYSTEM_ERROR
+     * and the exception is rethrown.
+     *
+     * @param activityContext - ActivityContext object containing data required to perform the activity
+     * @return ActivityResult
+     */
+    public final ActivityResult performInstrumented(ActivityContext activityContext) throws Exception {
+        if (!ActivityMetrics.INSTANCE.isEnabled()) {
+            return performActivity(activityContext);
+        }
+        long start = System.nanoTime();
+        ActivityStatus status = ActivityStatus.UNEXPECTED_SYSTEM_ERROR;
+        try {
+            ActivityResult result = performActivity(activityContext);
+            status = this.getActivityResult().getStatus();
+            return result;
+        }
+        finally {
+            ActivityMetrics.INSTANCE.record(this, System.nanoTime() - start, status);
+        }
+    }
+
     /**
      * Return the highest valued status of all the sub-activities.
      *
@@ -3,8 +3,18 @@ package com.paypal.common.activities;
 import com.paypal.common.exceptions.ActivityException;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created with IntelliJ IDEA.
@@ -13,25 +23,130 @@ import java.util.HashMap;
  * Time: 11:16 AM
  * ActivityContext is a Map instance to store data associated to an Activity.
  * It is intended to be a loosely defined Map which provides the flexibility of defining various types of data required
+ * ActivityContext is not thread-safe; use ConcurrentActivityContext when activities share a context across threads.
+ * Values are stored in an array indexed by ActivityContextKey.getOrdinal(), with a bitset recording which keys exist,
+ * so lookups do not hash.  The arrays are only allocated on the first write and grow geometrically to cover the highest
+ * ordinal written, so a context's size depends on the keys it holds rather than on every key registered in the jvm.
+ * Values added with LongContextKey, IntContextKey or DoubleContextKey are stored unboxed in a parallel long array.
  */
 public class ActivityContext implements Serializable{
     private static Logger logger = Logger.getLogger(ActivityContext.class);
-    private HashMap<ActivityContextKey, Object> context;
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final long[] NO_KEYS = new long[0];
+    private static final int MIN_CAPACITY = 8;
+    private transient Object[] values = NO_VALUES;
+    private transient long[] present = NO_KEYS;
+    private transient long[] primitives = NO_KEYS;
 
     /**
-     * Constructor - initializes an empty HashMap object
+     * Markers stored in the value slot when the value itself is held in the primitives array
+     */
+    private enum PrimitiveSlot {
+        LONG, INT, DOUBLE
+    }
+
+    /**
+     * Constructor - initializes an empty context
      */
     public ActivityContext() {
-        this.context = new HashMap<ActivityContextKey, Object>();
     }
 
     /**
-     * Constructor - sets the context Map to an incoming Map implementation
+     * Constructor - initializes the context with the entries of an incoming Map.
+     * The entries are copied; later changes to the Map are not reflected in the context.
      *
      * @param contextMap - a Map implementation object
      */
     public ActivityContext(HashMap<ActivityContextKey, Object> contextMap) {
-        this.context = contextMap;
+        for (Map.Entry<ActivityContextKey, Object> entry : contextMap.entrySet()) {
+            this.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Constructor - copies the values of another context
+     *
+     * @param source - the context to copy
+     */
+    ActivityContext(ActivityContext source) {
+        this.values = source.values.length == 0 ? NO_VALUES : source.values.clone();
+        this.present = source.present.length == 0 ? NO_KEYS : source.present.clone();
+        this.primitives = source.primitives.length == 0 ? NO_KEYS : source.primitives.clone();
+    }
+
+    /**
+     * Store a value in the slot for the key, growing the arrays if needed
+     */
+    void put(ActivityContextKey key, Object value) {
+        int ordinal = key.getOrdinal();
+        if (ordinal >= this.values.length) {
+            int capacity = Math.max(ordinal + 1, Math.max(MIN_CAPACITY, this.values.length * 2));
+            this.values = Arrays.copyOf(this.values, capacity);
+            this.present = Arrays.copyOf(this.present, (capacity + 63) >>> 6);
+        }
+        this.values[ordinal] = value;
+        this.present[ordinal >>> 6] |= 1L << ordinal;
+    }
+
+    /**
+     * Store a primitive value in the primitives array and mark the value slot with its type
+     */
+    private void putPrimitive(ActivityContextKey key, PrimitiveSlot slot, long bits) {
+        this.put(key, slot);
+        int ordinal = key.getOrdinal();
+        if (ordinal >= this.primitives.length) {
+            this.primitives = Arrays.copyOf(this.primitives, this.values.length);
+        }
+        this.primitives[ordinal] = bits;
+    }
+
+    /**
+     * Returns the raw slot value, which may be a PrimitiveSlot marker
+     */
+    private Object slot(ActivityContextKey key) {
+        int ordinal = key.getOrdinal();
+        return ordinal < this.values.length ? this.values[ordinal] : null;
+    }
+
+    /**
+     * Add a typed key/value pair to the Activity Context and overwrite if existing
+     *
+     * @param key   - the key for the context data
+     * @param value - the value for the context data
+     * @param <T>   - the type of the value
+     */
+    public <T> void addContext(TypedActivityContextKey<T> key, T value) {
+        this.addContext(key, value, true);
+    }
+
+    /**
+     * Add a long value to the Activity Context without boxing, overwriting if existing
+     *
+     * @param key   - the key for the context data
+     * @param value - the value for the context data
+     */
+    public void addContext(LongContextKey key, long value) {
+        this.putPrimitive(key, PrimitiveSlot.LONG, value);
+    }
+
+    /**
+     * Add an int value to the Activity Context without boxing, overwriting if existing
+     *
+     * @param key   - the key for the context data
+     * @param value - the value for the context data
+     */
+    public void addContext(IntContextKey key, int value) {
+        this.putPrimitive(key, PrimitiveSlot.INT, value);
+    }
+
+    /**
+     * Add a double value to the Activity Context without boxing, overwriting if existing
+     *
+     * @param key   - the key for the context data
+     * @param value - the value for the context data
+     */
+    public void addContext(DoubleContextKey key, double value) {
+        this.putPrimitive(key, PrimitiveSlot.DOUBLE, Double.doubleToRawLongBits(value));
     }
 
     /**
@@ -52,14 +167,56 @@ public class ActivityContext implements Serializable{
      * @param overwrite - if true, will overwrite existing value. if false, will not overwrite existing value.
      */
     public void addContext(ActivityContextKey key, Object value, boolean overwrite) {
+        key.checkValue(value);
         //if overwrite is true, put the key
         if(overwrite){
-            this.context.put(key, value);
+            this.put(key, value);
         }
         //only put if the key does not exist
         else if(!this.contextExistsAndNotNull(key)){
-            this.context.put(key, value);
+            this.put(key, value);
+        }
+    }
+
+    /**
+     * Add key/value pair to the Activity Context only if the key does not exist or its value is null
+     *
+     * @param key   - the key for the context data
+     * @param value - the value for the context data
+     * @return Object - the existing non-null value, or null if the value was added
+     */
+    public Object putIfAbsent(ActivityContextKey key, Object value) {
+        key.checkValue(value);
+        Object existing = this.get(key);
+        if (existing == null) {
+            this.put(key, value);
         }
+        return existing;
+    }
+
+    /**
+     * Replace the value for a key with the value returned by the updater.
+     * The updater receives null if the key does not exist.
+     *
+     * @param key     - the key for the context data
+     * @param updater - computes the new value from the current value
+     * @return Object - the new value
+     */
+    public Object compute(ActivityContextKey key, ActivityContextUpdater updater) {
+        Object newValue = updater.update(key, this.get(key));
+        key.checkValue(newValue);
+        this.put(key, newValue);
+        return newValue;
+    }
+
+    /**
+     * Returns a read-only copy of the current context.  Changes made to this context after the snapshot is taken
+     * are not visible through the snapshot, and all methods that modify the snapshot throw UnsupportedOperationException.
+     *
+     * @return ActivityContext
+     */
+    public ActivityContext snapshot() {
+        return new ActivityContextSnapshot(this);
     }
 
     /**
@@ -68,7 +225,11 @@ public class ActivityContext implements Serializable{
      * @param key   - the key for the context data
      */
     public void removeContext(ActivityContextKey key) {
-        this.context.remove(key);
+        int ordinal = key.getOrdinal();
+        if (ordinal < this.values.length) {
+            this.values[ordinal] = null;
+            this.present[ordinal >>> 6] &= ~(1L << ordinal);
+        }
     }
 
     /**
@@ -78,8 +239,85 @@ public class ActivityContext implements Serializable{
      * @return Object - the corresponding value.  It will need to be cast to the appropriate type
      */
     public Object get(ActivityContextKey contextKey) {
-        if (!contextExists(contextKey)) return null;
-        return this.context.get(contextKey);
+        int ordinal = contextKey.getOrdinal();
+        return ordinal < this.values.length ? this.valueAt(ordinal) : null;
+    }
+
+    /**
+     * Returns the value in a slot, boxing it if it is held in the primitives array
+     */
+    private Object valueAt(int ordinal) {
+        Object value = this.values[ordinal];
+        if (value instanceof PrimitiveSlot) {
+            long bits = this.primitives[ordinal];
+            switch ((PrimitiveSlot) value) {
+                case LONG:
+                    return bits;
+                case INT:
+                    return (int) bits;
+                default:
+                    return Double.longBitsToDouble(bits);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Get the value associated to the Activity Context for a typed key.
+     * The type was checked when the value was added, so no cast is needed.
+     *
+     * @param contextKey - the key for a context value
+     * @param <T>        - the type of the value
+     * @return T - the corresponding value, or null if it does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(TypedActivityContextKey<T> contextKey) {
+        return (T) this.get((ActivityContextKey) contextKey);
+    }
+
+    /**
+     * Get a long value without boxing
+     *
+     * @param contextKey   - the key for a context value
+     * @param defaultValue - returned if the key does not exist or its value is null
+     * @return long
+     */
+    public long getLong(LongContextKey contextKey, long defaultValue) {
+        Object value = this.slot(contextKey);
+        if (value == PrimitiveSlot.LONG) {
+            return this.primitives[contextKey.getOrdinal()];
+        }
+        return value == null ? defaultValue : ((Number) this.get(contextKey)).longValue();
+    }
+
+    /**
+     * Get an int value without boxing
+     *
+     * @param contextKey   - the key for a context value
+     * @param defaultValue - returned if the key does not exist or its value is null
+     * @return int
+     */
+    public int getInt(IntContextKey contextKey, int defaultValue) {
+        Object value = this.slot(contextKey);
+        if (value == PrimitiveSlot.INT) {
+            return (int) this.primitives[contextKey.getOrdinal()];
+        }
+        return value == null ? defaultValue : ((Number) this.get(contextKey)).intValue();
+    }
+
+    /**
+     * Get a double value without boxing
+     *
+     * @param contextKey   - the key for a context value
+     * @param defaultValue - returned if the key does not exist or its value is null
+     * @return double
+     */
+    public double getDouble(DoubleContextKey contextKey, double defaultValue) {
+        Object value = this.slot(contextKey);
+        if (value == PrimitiveSlot.DOUBLE) {
+            return Double.longBitsToDouble(this.primitives[contextKey.getOrdinal()]);
+        }
+        return value == null ? defaultValue : ((Number) this.get(contextKey)).doubleValue();
     }
 
     /**
@@ -90,7 +328,7 @@ public class ActivityContext implements Serializable{
      */
     public Object get(ActivityContextKey contextKey, ActivityResult activityResult) {
         if (!contextExistsAndNotNull(contextKey, activityResult)) return null;
-        return this.context.get(contextKey);
+        return this.get(contextKey);
     }
 
     /**
@@ -121,7 +359,8 @@ public class ActivityContext implements Serializable{
      * @return - boolean
      */
     public boolean contextExists(ActivityContextKey contextKey) {
-        return this.context.containsKey(contextKey);
+        int ordinal = contextKey.getOrdinal();
+        return ordinal < this.values.length && (this.present[ordinal >>> 6] & (1L << ordinal)) != 0;
     }
 
     /**
@@ -131,7 +370,8 @@ public class ActivityContext implements Serializable{
      * @return - boolean
      */
     public boolean contextExistsAndNotNull(ActivityContextKey contextKey) {
-        return (this.contextExists(contextKey) && this.get(contextKey) != null);
+        //a key that does not exist always has a null slot, so a single read is enough
+        return this.get(contextKey) != null;
     }
 
     /**
@@ -142,11 +382,55 @@ public class ActivityContext implements Serializable{
      */
     public boolean contextExistsAndNotNull(ActivityContextKey contextKey, ActivityResult activityResult){
         if (!this.contextExistsAndNotNull(contextKey)) {
-            String msg = "'" + contextKey.getDescription() + "' does not exist in the current context.";
-            logger.debug(msg);
-            activityResult.addMessage(ActivityResultMessageCategory.ERROR, msg);
+            ActivityResultMessage msg = contextKey.getMissingMessage();
+            if (logger.isDebugEnabled()) {
+                logger.debug(msg.getMessage());
+            }
+            activityResult.addMessage(msg);
             return false;
         }
         return true;
     }
+
+    /**
+     * Ordinals are only meaningful within a single jvm, so serialize the context as key description/value pairs.
+     * A context holding two different keys with the same description cannot be serialized, because both values would
+     * be read back under one key.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        List<String> descriptions = new ArrayList<String>();
+        Set<String> distinct = new HashSet<String>();
+        for (int ordinal = 0; ordinal < this.values.length; ordinal++) {
+            if ((this.present[ordinal >>> 6] & (1L << ordinal)) != 0) {
+                String description = ActivityContextKeyRegistry.INSTANCE.getDescription(ordinal);
+                if (!distinct.add(description)) {
+                    throw new NotSerializableException("ActivityContext holds more than one key with description " + description);
+                }
+                descriptions.add(description);
+            }
+        }
+        out.writeInt(descriptions.size());
+        int index = 0;
+        for (int ordinal = 0; ordinal < this.values.length; ordinal++) {
+            if ((this.present[ordinal >>> 6] & (1L << ordinal)) != 0) {
+                out.writeObject(descriptions.get(index++));
+                out.writeObject(this.valueAt(ordinal));
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.values = NO_VALUES;
+        this.present = NO_KEYS;
+        this.primitives = NO_KEYS;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            ActivityContextKey key = ActivityContextKey.forDescription((String) in.readObject());
+            Object value = in.readObject();
+            key.checkValue(value);
+            this.put(key, value);
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package com.paypal.common.activities;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -8,15 +10,98 @@ import java.io.Serializable;
  * Date: 3/6/13
  * Time: 9:40 AM
  * Class to be used as keys in ActivityContext - It forces users to have a public, reusable key rather than open-ended strings.
+ * Each key instance is a different key, even if another key has the same description.  A deserialized key is equal to
+ * the first key created with its description in this jvm (see ActivityContextKeyRegistry).
  */
 public class ActivityContextKey implements Serializable{
     private String description;
+    private transient int ordinal;
+    private transient ActivityResultMessage missingMessage;
 
     public ActivityContextKey(String description) {
+        this(description, null);
+    }
+
+    /**
+     * @param description - the key description
+     * @param type        - the value type, or null for an untyped key
+     */
+    ActivityContextKey(String description, Class<?> type) {
+        this.description = description;
+        this.ordinal = ActivityContextKeyRegistry.INSTANCE.register(description, type);
+    }
+
+    private ActivityContextKey(int ordinal, String description) {
         this.description = description;
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * Returns a key equal to the first key created with the given description, as a deserialized key would be
+     */
+    static ActivityContextKey forDescription(String description) {
+        return new ActivityContextKey(ActivityContextKeyRegistry.INSTANCE.resolve(description, null), description);
     }
 
     public String getDescription() {
         return description;
     }
+
+    /**
+     * Returns the dense index assigned to this key by the ActivityContextKeyRegistry
+     *
+     * @return int
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * Returns the shared ERROR message reported when this key does not exist in a context
+     *
+     * @return ActivityResultMessage
+     */
+    ActivityResultMessage getMissingMessage() {
+        ActivityResultMessage message = missingMessage;
+        if (message == null) {
+            //a race only creates an equivalent instance, so no locking is needed
+            message = ActivityMessages.CONTEXT_KEY_MISSING.newSharedMessage(ActivityResultMessageCategory.ERROR, description);
+            missingMessage = message;
+        }
+        return message;
+    }
+
+    /**
+     * Validates a value before it is added to a context against the type registered for the key's ordinal, if any.
+     * This also covers an untyped key deserialized under the description of a typed key.
+     *
+     * @param value - the value to be added
+     */
+    void checkValue(Object value) {
+        if (value == null) {
+            return;
+        }
+        Class<?> type = ActivityContextKeyRegistry.INSTANCE.getType(ordinal);
+        if (type != null && !type.isInstance(value)) {
+            throw new ClassCastException("Attempted to add value of type: " + value.getClass().getName() + " for key: " + description + " of type: " + type.getName());
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || (obj instanceof ActivityContextKey && ((ActivityContextKey) obj).ordinal == this.ordinal);
+    }
+
+    @Override
+    public int hashCode() {
+        return ordinal;
+    }
+
+    /**
+     * Ordinals are only meaningful within a single jvm, so take the canonical ordinal of the description
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.ordinal = ActivityContextKeyRegistry.INSTANCE.resolve(description, null);
+    }
 }
@@ -0,0 +1,145 @@
+package com.paypal.common.activities;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * <p>Assigns each ActivityContextKey instance a dense ordinal, starting at 0.  ActivityContext uses the ordinal as an
+ * index into an array of values, so a lookup is a single array access instead of a hash probe.  Keys keep their
+ * identity semantics: two keys created with the same description are different keys with different ordinals.
+ *
+ * <p>Ordinals are only meaningful within one jvm, so a serialized key or context refers to its keys by description.
+ * Each description has a canonical ordinal, the one of the first key created with it, and a deserialized key takes
+ * that ordinal.  If a context is deserialized before any key with a description exists, the canonical ordinal is
+ * reserved and handed to the first key created with that description afterwards.
+ *
+ * <p>The registry also records the value type of each TypedActivityContextKey ordinal, and every write to a context
+ * is checked against it.
+ *
+ * <p>Ordinals are never unregistered, and a context holding a key needs a slot for every ordinal up to the key's.
+ * Keys are meant to be created once, as constants.  Creating keys per request grows the registry, and the contexts
+ * that use those keys, for the life of the jvm; a warning is logged once the registry holds more than WARNING_SIZE
+ * ordinals.
+ *
+ * <p>Use enum-based singleton pattern which has key advantages over traditional singleton pattern
+ * <li>Easier to write</li>
+ * <li>Serialization is guaranteed by the jvm</li>
+ * <li>Enum is thread-safe; no need for double checked locking</li>
+ */
+public enum ActivityContextKeyRegistry {
+    INSTANCE;
+    public static final int WARNING_SIZE = 10000;
+    private final Logger logger = Logger.getLogger(ActivityContextKeyRegistry.class);
+    //canonical ordinal of each description
+    private final HashMap<String, Integer> ordinals = new HashMap<String, Integer>();
+    private final ArrayList<String> descriptions = new ArrayList<String>();
+    //ordinals that belong to a key created in this jvm, as opposed to ones reserved by deserialization
+    private final BitSet claimed = new BitSet();
+    //value type of each ordinal, or null for untyped; replaced on change so that reads need no lock
+    private volatile Class<?>[] types = new Class<?>[0];
+    private volatile int size = 0;
+
+    /**
+     * Assigns an ordinal to a new key.  Keys are normally created once as constants, so this is not on the hot path.
+     *
+     * @param description - the key description
+     * @param type        - the value type of a typed key, or null for an untyped key
+     * @return int
+     */
+    synchronized int register(String description, Class<?> type) {
+        Integer reserved = this.ordinals.get(description);
+        if (reserved != null && !this.claimed.get(reserved) && isCompatible(reserved, type)) {
+            this.claimed.set(reserved);
+            setType(reserved, type);
+            return reserved;
+        }
+        int ordinal = add(description);
+        this.claimed.set(ordinal);
+        setType(ordinal, type);
+        return ordinal;
+    }
+
+    /**
+     * Returns the canonical ordinal of a description for a deserialized key, reserving one if no key with the
+     * description has been created yet
+     *
+     * @param description - the key description
+     * @param type        - the value type of a typed key, or null for an untyped key
+     * @return int
+     * @throws IllegalArgumentException if the canonical key has a different type
+     */
+    synchronized int resolve(String description, Class<?> type) {
+        Integer ordinal = this.ordinals.get(description);
+        if (ordinal == null) {
+            ordinal = add(description);
+        }
+        if (!isCompatible(ordinal, type)) {
+            throw new IllegalArgumentException("ActivityContextKey " + description + " is registered with type "
+                    + getType(ordinal).getName() + ", not " + type.getName());
+        }
+        setType(ordinal, type);
+        return ordinal;
+    }
+
+    private int add(String description) {
+        int ordinal = this.size;
+        if (!this.ordinals.containsKey(description)) {
+            this.ordinals.put(description, ordinal);
+        }
+        this.descriptions.add(description);
+        this.size = ordinal + 1;
+        if (this.size == WARNING_SIZE + 1) {
+            logger.warn("More than " + WARNING_SIZE + " ActivityContextKeys have been created."
+                    + "  Keys should be constants; keys created per request are never released.");
+        }
+        return ordinal;
+    }
+
+    private boolean isCompatible(int ordinal, Class<?> type) {
+        Class<?> registered = getType(ordinal);
+        return type == null || registered == null || registered == type;
+    }
+
+    private void setType(int ordinal, Class<?> type) {
+        if (type == null || getType(ordinal) != null) {
+            return;
+        }
+        Class<?>[] updated = Arrays.copyOf(this.types, Math.max(this.types.length, this.size));
+        updated[ordinal] = type;
+        this.types = updated;
+    }
+
+    /**
+     * Returns the value type registered for an ordinal, or null if it belongs to an untyped key
+     *
+     * @param ordinal - an ordinal returned by ActivityContextKey.getOrdinal()
+     * @return Class
+     */
+    public Class<?> getType(int ordinal) {
+        Class<?>[] current = this.types;
+        return ordinal < current.length ? current[ordinal] : null;
+    }
+
+    /**
+     * Returns the description registered for an ordinal
+     *
+     * @param ordinal - an ordinal returned by ActivityContextKey.getOrdinal()
+     * @return String
+     */
+    public synchronized String getDescription(int ordinal) {
+        return this.descriptions.get(ordinal);
+    }
+
+    /**
+     * Returns the number of ordinals assigned so far.  Every registered ordinal is less than this value.
+     *
+     * @return int
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,58 @@
+package com.paypal.common.activities;
+
+/**
+ * Read-only ActivityContext returned by ActivityContext.snapshot().
+ * All methods that would modify the context throw UnsupportedOperationException.
+ */
+class ActivityContextSnapshot extends ActivityContext {
+
+    /**
+     * Constructor - an empty snapshot, filled by the context that takes it through put
+     */
+    ActivityContextSnapshot() {
+    }
+
+    ActivityContextSnapshot(ActivityContext source) {
+        super(source);
+    }
+
+    @Override
+    public void addContext(ActivityContextKey key, Object value, boolean overwrite) {
+        throw new UnsupportedOperationException("ActivityContext snapshot is read-only");
+    }
+
+    @Override
+    public void addContext(LongContextKey key, long value) {
+        throw new UnsupportedOperationException("ActivityContext snapshot is read-only");
+    }
+
+    @Override
+    public void addContext(IntContextKey key, int value) {
+        throw new UnsupportedOperationException("ActivityContext snapshot is read-only");
+    }
+
+    @Override
+    public void addContext(DoubleContextKey key, double value) {
+        throw new UnsupportedOperationException("ActivityContext snapshot is read-only");
+    }
+
+    @Override
+    public Object putIfAbsent(ActivityContextKey key, Object value) {
+        throw new UnsupportedOperationException("ActivityContext snapshot is read-only");
+    }
+
+    @Override
+    public Object compute(ActivityContextKey key, ActivityContextUpdater updater) {
+        throw new UnsupportedOperationException("ActivityContext snapshot is read-only");
+    }
+
+    @Override
+    public void removeContext(ActivityContextKey key) {
+        throw new UnsupportedOperationException("ActivityContext snapshot is read-only");
+    }
+
+    @Override
+    public ActivityContext snapshot() {
+        return this;
+    }
+}
@@ -0,0 +1,17 @@
+package com.paypal.common.activities;
+
+/**
+ * Callback used by ActivityContext.compute to derive a new context value from the current one.
+ * With a ConcurrentActivityContext the updater may be called more than once if another thread changes the value
+ * at the same time, so it should not have side effects.
+ */
+public interface ActivityContextUpdater {
+    /**
+     * Returns the new value for the key
+     *
+     * @param key          - the key being updated
+     * @param currentValue - the current value, or null if the key does not exist
+     * @return Object - the value to store
+     */
+    Object update(ActivityContextKey key, Object currentValue);
+}
@@ -0,0 +1,130 @@
+package com.paypal.common.activities;
+
+import org.perf4j.StopWatch;
+import org.perf4j.log4j.Log4JStopWatch;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Execution frame holding the per-run state of an ActivityGraph: one ActivityResult and one StopWatch per activity.
+ * While a frame is bound to the current thread, Activity.getActivityResult(), Activity.getStopWatch() and the
+ * addActivityResultMessage/setActivityResultStatus helpers read and write the frame instead of the activity's fields,
+ * so a single activity tree can serve many concurrent runs.
+ * <p/>
+ * The frame is propagated to the threads of a sub-activity executor automatically.
+ */
+public class ActivityExecution {
+    private static final ThreadLocal<ActivityExecution> CURRENT = new ThreadLocal<ActivityExecution>();
+    private final Activity root;
+    private final ConcurrentHashMap<Activity, ActivityResult> results = new ConcurrentHashMap<Activity, ActivityResult>();
+    private final ConcurrentHashMap<Activity, StopWatch> stopWatches = new ConcurrentHashMap<Activity, StopWatch>();
+
+    ActivityExecution(Activity root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the frame bound to the current thread, or null if the current thread is not running an ActivityGraph
+     *
+     * @return ActivityExecution
+     */
+    static ActivityExecution current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Bind a frame to the current thread
+     *
+     * @param execution - the frame to bind, or null to unbind
+     * @return ActivityExecution - the previously bound frame, to be restored when the run completes
+     */
+    static ActivityExecution bind(ActivityExecution execution) {
+        ActivityExecution previous = CURRENT.get();
+        if (execution == null) {
+            CURRENT.remove();
+        }
+        else {
+            CURRENT.set(execution);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns a task that runs with the frame bound to the calling thread at the time of this call
+     *
+     * @param task - the task to run
+     * @return Runnable
+     */
+    static Runnable propagate(final Runnable task) {
+        final ActivityExecution execution = CURRENT.get();
+        if (execution == null) {
+            return task;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                ActivityExecution previous = bind(execution);
+                try {
+                    task.run();
+                }
+                finally {
+                    bind(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the root activity of the run
+     *
+     * @return Activity
+     */
+    public Activity getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the result of the root activity
+     *
+     * @return ActivityResult
+     */
+    public ActivityResult getActivityResult() {
+        return getActivityResult(root);
+    }
+
+    /**
+     * Returns the result of an activity in this run.  Activities that were not performed have a NOT_RUN result.
+     *
+     * @param activity - an activity of the graph
+     * @return ActivityResult
+     */
+    public ActivityResult getActivityResult(Activity activity) {
+        ActivityResult result = results.get(activity);
+        if (result == null) {
+            ActivityResult newResult = new ActivityResult();
+            result = results.putIfAbsent(activity, newResult);
+            if (result == null) {
+                result = newResult;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stop watch of an activity in this run
+     *
+     * @param activity - an activity of the graph
+     * @return StopWatch
+     */
+    StopWatch getStopWatch(Activity activity) {
+        StopWatch stopWatch = stopWatches.get(activity);
+        if (stopWatch == null) {
+            StopWatch newStopWatch = new Log4JStopWatch();
+            stopWatch = stopWatches.putIfAbsent(activity, newStopWatch);
+            if (stopWatch == null) {
+                stopWatch = newStopWatch;
+            }
+        }
+        return stopWatch;
+    }
+}
@@ -0,0 +1,100 @@
+package com.paypal.common.activities;
+
+/**
+ * Controls when an activity stops performing its sub-activities early.  Sub-activities that are not performed
+ * because of the policy are marked SKIPPED.
+ * <li>Fail-fast: once a sub-activity finishes with a status at least as severe as the fail-fast status, the
+ * remaining sub-activities are skipped</li>
+ * <li>Time budget: the sub-activities must complete within the given number of milliseconds</li>
+ * <li>Cancel in-flight: when the run stops early, sub-activities already running on the sub-activity executor are
+ * interrupted, and marked SKIPPED once they return</li>
+ * <p/>
+ * Independently of any policy, performSubActivities honors a request-wide deadline stored in the ActivityContext
+ * under DEADLINE (see setDeadline).  Long-running activities should check isCancellationRequested and return early
+ * so that deadlines and in-flight cancellation take effect promptly.
+ */
+public class ActivityExecutionPolicy {
+    /**
+     * Context key for the request-wide deadline, in milliseconds since the epoch
+     */
+    public static final LongContextKey DEADLINE = new LongContextKey("activity.deadline");
+    private ActivityStatus failFastStatus = null;
+    private long timeBudgetInMs = 0;
+    private boolean cancelInFlight = false;
+
+    public ActivityExecutionPolicy() {
+    }
+
+    /**
+     * Constructor
+     *
+     * @param failFastStatus - the status that stops the run, or null to perform every sub-activity
+     * @param timeBudgetInMs - the time the sub-activities may take, or 0 for no limit
+     * @param cancelInFlight - whether to interrupt running sub-activities when the run stops early
+     */
+    public ActivityExecutionPolicy(ActivityStatus failFastStatus, long timeBudgetInMs, boolean cancelInFlight) {
+        this.failFastStatus = failFastStatus;
+        this.timeBudgetInMs = timeBudgetInMs;
+        this.cancelInFlight = cancelInFlight;
+    }
+
+    public ActivityStatus getFailFastStatus() {
+        return failFastStatus;
+    }
+
+    public void setFailFastStatus(ActivityStatus failFastStatus) {
+        this.failFastStatus = failFastStatus;
+    }
+
+    public long getTimeBudgetInMs() {
+        return timeBudgetInMs;
+    }
+
+    public void setTimeBudgetInMs(long timeBudgetInMs) {
+        this.timeBudgetInMs = timeBudgetInMs;
+    }
+
+    public boolean isCancelInFlight() {
+        return cancelInFlight;
+    }
+
+    public void setCancelInFlight(boolean cancelInFlight) {
+        this.cancelInFlight = cancelInFlight;
+    }
+
+    /**
+     * Returns whether or not a finished sub-activity's status should stop the run
+     *
+     * @param status - the status of the finished sub-activity
+     * @return boolean
+     */
+    boolean isFailFast(ActivityStatus status) {
+        return failFastStatus != null && status.getValue() >= failFastStatus.getValue();
+    }
+
+    /**
+     * Set a request-wide deadline in the context.  Every activity performing sub-activities with this context
+     * skips the remaining ones once the deadline has passed.
+     *
+     * @param activityContext - the context of the request
+     * @param timeBudgetInMs  - the time the request may take from now
+     */
+    public static void setDeadline(ActivityContext activityContext, long timeBudgetInMs) {
+        activityContext.addContext(DEADLINE, System.currentTimeMillis() + timeBudgetInMs);
+    }
+
+    /**
+     * Returns whether or not an activity should stop: the current thread has been interrupted, e.g. to cancel an
+     * in-flight sub-activity, or the deadline in the context has passed
+     *
+     * @param activityContext - the current activityContext
+     * @return boolean
+     */
+    public static boolean isCancellationRequested(ActivityContext activityContext) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        long deadline = activityContext.getLong(DEADLINE, 0);
+        return deadline != 0 && System.currentTimeMillis() >= deadline;
+    }
+}
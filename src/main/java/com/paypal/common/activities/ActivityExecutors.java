@@ -0,0 +1,84 @@
+package com.paypal.common.activities;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for executors that can be passed to Activity.setSubActivityExecutor.
+ * <li>Fork-join pools suit cpu-bound sub-activities</li>
+ * <li>I/O pools suit sub-activities that spend most of their time waiting on a database or file system</li>
+ * Threads created by these executors are daemon threads, so an executor that is never shut down will not
+ * keep the jvm alive.
+ */
+public class ActivityExecutors {
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger(1);
+
+    private ActivityExecutors() {
+    }
+
+    /**
+     * Returns a fork-join pool with one thread per available processor
+     *
+     * @return ExecutorService
+     */
+    public static ExecutorService newForkJoinPool() {
+        return newForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns a fork-join pool with the given parallelism
+     *
+     * @param parallelism - the target number of concurrently running sub-activities
+     * @return ExecutorService
+     */
+    public static ExecutorService newForkJoinPool(int parallelism) {
+        return new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /**
+     * Returns a fixed size pool intended for I/O-bound sub-activities.
+     * Since the threads mostly wait, the pool size can be much larger than the number of processors.
+     * Idle threads are released after 60 seconds.
+     *
+     * @param maxThreads - the maximum number of concurrently running sub-activities
+     * @return ExecutorService
+     */
+    public static ExecutorService newIoBoundExecutor(int maxThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("activity-io"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates named daemon threads
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        DaemonThreadFactory(String poolName) {
+            this.namePrefix = poolName + "-" + POOL_NUMBER.getAndIncrement() + "-thread-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
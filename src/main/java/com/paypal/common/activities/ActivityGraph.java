@@ -0,0 +1,60 @@
+package com.paypal.common.activities;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An activity tree that is built once and then shared by any number of concurrent runs.
+ * Creating the graph freezes the tree: addSubActivity throws IllegalStateException from then on.
+ * Each call to execute gets its own ActivityExecution, which holds the results and timings of that run only.
+ * <p/>
+ * Activities in a graph must use getActivityResult(), getStopWatch() and the addActivityResultMessage and
+ * setActivityResultStatus helpers rather than the activityResult and stopWatch fields, and must not keep any
+ * other per-run state in fields.
+ */
+public class ActivityGraph {
+    private static Logger logger = Logger.getLogger(ActivityGraph.class);
+    private final Activity root;
+
+    /**
+     * Constructor - freezes the tree under the root activity
+     *
+     * @param root - the top level activity
+     */
+    public ActivityGraph(Activity root) {
+        this.root = root;
+        root.freeze();
+    }
+
+    /**
+     * Returns the top level activity
+     *
+     * @return Activity
+     */
+    public Activity getRoot() {
+        return root;
+    }
+
+    /**
+     * Perform the root activity with a new execution frame
+     *
+     * @param activityContext - ActivityContext object containing data required to perform the activities
+     * @return ActivityExecution - the results of this run
+     */
+    public ActivityExecution execute(ActivityContext activityContext) {
+        ActivityExecution execution = new ActivityExecution(root);
+        ActivityExecution previous = ActivityExecution.bind(execution);
+        try {
+            root.performInstrumented(activityContext);
+        }
+        catch (Exception e) {
+            root.setActivityResultStatus(ActivityStatus.UNEXPECTED_SYSTEM_ERROR);
+            root.addActivityResultMessage(ActivityMessages.ACTIVITY_EXCEPTION, root.getClass());
+            root.addActivityResultMessage(e.getMessage());
+            logger.fatal(e);
+        }
+        finally {
+            ActivityExecution.bind(previous);
+        }
+        return execution;
+    }
+}
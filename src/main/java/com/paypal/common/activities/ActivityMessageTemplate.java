@@ -0,0 +1,126 @@
+package com.paypal.common.activities;
+
+/**
+ * Catalog entry for an activity result message: a message code plus a pattern with positional placeholders
+ * ({0}, {1}, ...).  Messages created from a template keep the code and arguments and only build the message
+ * string when it is first read, so results whose messages are never reported do not pay for string building.
+ * Class arguments are rendered with their simple name.
+ * <p/>
+ * Messages without arguments are shared: sharedMessage returns the same read-only instance for every call.
+ * See ActivityMessages for the templates used by this package.
+ */
+public class ActivityMessageTemplate {
+    private static final ActivityResultMessageCategory[] CATEGORIES = ActivityResultMessageCategory.values();
+    private final String code;
+    private final String pattern;
+    private final ActivityResultMessage[] sharedMessages = new ActivityResultMessage[CATEGORIES.length];
+
+    public ActivityMessageTemplate(String code, String pattern) {
+        this.code = code;
+        this.pattern = pattern;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns a message that will be rendered from this template when it is first read
+     *
+     * @param category  - the message category
+     * @param arguments - the values for the placeholders
+     * @return ActivityResultMessage
+     */
+    public ActivityResultMessage newMessage(ActivityResultMessageCategory category, Object... arguments) {
+        return new ActivityResultMessage(category, this, arguments);
+    }
+
+    /**
+     * Returns a read-only message that may be shared between results, e.g. cached by the caller for a fixed argument
+     *
+     * @param category  - the message category
+     * @param arguments - the values for the placeholders
+     * @return ActivityResultMessage
+     */
+    public ActivityResultMessage newSharedMessage(ActivityResultMessageCategory category, Object... arguments) {
+        return new SharedResultMessage(category, this, arguments);
+    }
+
+    /**
+     * Returns the shared read-only message for this template and category.  Intended for templates without placeholders.
+     *
+     * @param category - the message category
+     * @return ActivityResultMessage
+     */
+    public ActivityResultMessage sharedMessage(ActivityResultMessageCategory category) {
+        ActivityResultMessage message = sharedMessages[category.ordinal()];
+        if (message == null) {
+            //a race only creates an equivalent instance, so no locking is needed
+            message = newSharedMessage(category);
+            sharedMessages[category.ordinal()] = message;
+        }
+        return message;
+    }
+
+    /**
+     * Render the pattern, replacing each {n} placeholder with the string value of the nth argument
+     *
+     * @param arguments - the values for the placeholders
+     * @return String
+     */
+    public String format(Object... arguments) {
+        if (arguments == null || arguments.length == 0 || pattern.indexOf('{') < 0) {
+            return pattern;
+        }
+        StringBuilder sb = new StringBuilder(pattern.length() + 16 * arguments.length);
+        int length = pattern.length();
+        for (int i = 0; i < length; i++) {
+            char c = pattern.charAt(i);
+            int close = c == '{' ? pattern.indexOf('}', i) : -1;
+            if (close > i + 1 && isIndex(i + 1, close)) {
+                int index = Integer.parseInt(pattern.substring(i + 1, close));
+                if (index < arguments.length) {
+                    Object argument = arguments[index];
+                    sb.append(argument instanceof Class ? ((Class<?>) argument).getSimpleName() : String.valueOf(argument));
+                    i = close;
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private boolean isIndex(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(pattern.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read-only message that can safely be added to many results
+     */
+    private static class SharedResultMessage extends ActivityResultMessage {
+
+        SharedResultMessage(ActivityResultMessageCategory category, ActivityMessageTemplate template, Object[] arguments) {
+            super(category, template, arguments);
+        }
+
+        @Override
+        public void setCategory(ActivityResultMessageCategory category) {
+            throw new UnsupportedOperationException("Shared message " + getCode() + " is read-only");
+        }
+
+        @Override
+        public void setMessage(String message) {
+            throw new UnsupportedOperationException("Shared message " + getCode() + " is read-only");
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.paypal.common.activities;
+
+/**
+ * Message catalog for the messages added to activity results by this package
+ */
+public class ActivityMessages {
+    public static final ActivityMessageTemplate CONTEXT_KEY_MISSING =
+            new ActivityMessageTemplate("CONTEXT_KEY_MISSING", "'{0}' does not exist in the current context.");
+    public static final ActivityMessageTemplate SUB_ACTIVITY_EXCEPTION =
+            new ActivityMessageTemplate("SUB_ACTIVITY_EXCEPTION", "An unexpected exception occurred while performing sub-activity {0}");
+    public static final ActivityMessageTemplate ACTIVITY_EXCEPTION =
+            new ActivityMessageTemplate("ACTIVITY_EXCEPTION", "An unexpected exception occurred while performing activity {0}");
+    public static final ActivityMessageTemplate SUB_ACTIVITY_SKIPPED =
+            new ActivityMessageTemplate("SUB_ACTIVITY_SKIPPED", "Sub-activity was skipped because {0}");
+
+    private ActivityMessages() {
+    }
+}
@@ -0,0 +1,133 @@
+package com.paypal.common.activities;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Built-in instrumentation of activity execution.  Every sub-activity performed by Activity.performSubActivities
+ * (or one of its variants) and every root activity performed by ActivityGraph.execute is timed, and its latency and
+ * resulting status are recorded twice: per activity class and per tree path (e.g. RootActivity/AmountActivity).
+ * A path name is only built the first time the path is seen.  After that, an activity finds its path statistics
+ * from its parent's by class, without allocating, and caches them until it is added to another parent.
+ * The activities of an ActivityGraph resolve their statistics when the graph is created.
+ * Activities performed outside of an ActivityGraph are timed as a root by Activity.performInstrumented.
+ *
+ * <p>Use enum-based singleton pattern which has key advantages over traditional singleton pattern
+ * <li>Easier to write</li>
+ * <li>Serialization is guaranteed by the jvm</li>
+ * <li>Enum is thread-safe; no need for double checked locking</li>
+ */
+public enum ActivityMetrics {
+    INSTANCE;
+    private final ConcurrentHashMap<String, ActivityStats> classStats = new ConcurrentHashMap<String, ActivityStats>();
+    private final ConcurrentHashMap<String, ActivityStats> pathStats = new ConcurrentHashMap<String, ActivityStats>();
+    private final ConcurrentHashMap<Class<?>, ActivityStats> rootPathStats = new ConcurrentHashMap<Class<?>, ActivityStats>();
+    private volatile boolean enabled = true;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn instrumentation on or off.  It is on by default.
+     *
+     * @param enabled - boolean
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Record one run of an activity
+     *
+     * @param activity - the activity that was performed
+     * @param nanos    - the time it took
+     * @param status   - the status of its result
+     */
+    void record(Activity activity, long nanos, ActivityStatus status) {
+        activity.getClassStats().record(nanos, status);
+        activity.getPathStats().record(nanos, status);
+    }
+
+    ActivityStats statsForClass(Class<?> activityClass) {
+        return statsFor(classStats, activityClass.getName());
+    }
+
+    /**
+     * Returns the path statistics of an activity at the top of its tree
+     */
+    ActivityStats statsForRootPath(Class<?> activityClass) {
+        ActivityStats stats = rootPathStats.get(activityClass);
+        if (stats == null) {
+            stats = statsFor(pathStats, activityClass.getSimpleName());
+            rootPathStats.putIfAbsent(activityClass, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the path statistics of an activity performed under the given parent path
+     */
+    ActivityStats statsForChildPath(ActivityStats parentPathStats, Class<?> activityClass) {
+        ConcurrentHashMap<Class<?>, ActivityStats> children = parentPathStats.getChildren();
+        ActivityStats stats = children.get(activityClass);
+        if (stats == null) {
+            stats = statsFor(pathStats, parentPathStats.getName() + "/" + activityClass.getSimpleName());
+            children.putIfAbsent(activityClass, stats);
+        }
+        return stats;
+    }
+
+    private static ActivityStats statsFor(ConcurrentHashMap<String, ActivityStats> statsMap, String name) {
+        ActivityStats stats = statsMap.get(name);
+        if (stats == null) {
+            ActivityStats newStats = new ActivityStats(name);
+            stats = statsMap.putIfAbsent(name, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the statistics of every activity class that has been performed, keyed by class name
+     *
+     * @return Map&lt;String, ActivityStats&gt;
+     */
+    public Map<String, ActivityStats> getClassStats() {
+        return Collections.unmodifiableMap(new TreeMap<String, ActivityStats>(classStats));
+    }
+
+    /**
+     * Returns the statistics of every activity tree path that has been performed, keyed by path
+     *
+     * @return Map&lt;String, ActivityStats&gt;
+     */
+    public Map<String, ActivityStats> getPathStats() {
+        return Collections.unmodifiableMap(new TreeMap<String, ActivityStats>(pathStats));
+    }
+
+    /**
+     * Clear all recorded values.  Activities keep their cached statistics, so they continue to record into them.
+     */
+    public void reset() {
+        for (ActivityStats stats : classStats.values()) {
+            stats.reset();
+        }
+        for (ActivityStats stats : pathStats.values()) {
+            stats.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (ActivityStats stats : getPathStats().values()) {
+            sb.append(stats).append('\n');
+        }
+        return sb.toString();
+    }
+}
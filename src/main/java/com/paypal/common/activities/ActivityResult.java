@@ -7,18 +7,22 @@ import java.util.*;
  * Date: 2/15/13
  * Time: 12:06 AM
  * POJO (plain old java object) that is returned by all implementations of the Activity interface.
+ * Messages are indexed by category as they are added, so filtering by category and counting do not scan every message.
  */
 public class ActivityResult {
+    private static final ActivityResultMessageCategory[] CATEGORIES = ActivityResultMessageCategory.values();
     private ActivityStatus status;
-    private final List<ActivityResultMessage> resultMessages;
+    private final MessageSequence<ActivityResultMessage> resultMessages;
+    private final EnumMap<ActivityResultMessageCategory, MessageSequence<ActivityResultMessage>> categoryMessages;
 
     /**
      * Initialize the status to NOT_RUN
-     * Initialize an empty ArrayList for messages
+     * Initialize empty lists for messages
      */
     public ActivityResult() {
         this.status = ActivityStatus.NOT_RUN;
-        this.resultMessages = new ArrayList<ActivityResultMessage>();
+        this.resultMessages = new MessageSequence<ActivityResultMessage>();
+        this.categoryMessages = new EnumMap<ActivityResultMessageCategory, MessageSequence<ActivityResultMessage>>(ActivityResultMessageCategory.class);
     }
 
     public ActivityStatus getStatus() {
@@ -47,13 +51,7 @@ public class ActivityResult {
      * @return
      */
     public List<String> getMessages(ActivityResultMessageCategory msgCategory) {
-        ArrayList<String> msgs = new ArrayList<String>();
-        for(ActivityResultMessage resultMsg : resultMessages){
-            if(resultMsg.getCategory().equals(msgCategory)){
-                msgs.add(resultMsg.getMessage());
-            }
-        }
-        return msgs;
+        return new ArrayList<String>(getMessageView(msgCategory));
     }
 
     /**
@@ -64,6 +62,11 @@ public class ActivityResult {
      */
     public List<String> getMessagesMinCategory(ActivityResultMessageCategory minMsgCategory) {
         ArrayList<String> msgs = new ArrayList<String>();
+        ActivityResultMessageCategory onlyCategory = onlyCategoryAtLeast(minMsgCategory);
+        if (onlyCategory != null) {
+            msgs.addAll(getMessageView(onlyCategory));
+            return msgs;
+        }
         for(ActivityResultMessage resultMsg : resultMessages){
             if(resultMsg.getCategory().getValue() >= minMsgCategory.getValue()){
                 msgs.add(resultMsg.getMessage());
@@ -72,12 +75,104 @@ public class ActivityResult {
         return msgs;
     }
 
+    /**
+     * Returns a read-only view of the result messages themselves, in order
+     */
+    List<ActivityResultMessage> getResultMessages() {
+        return Collections.unmodifiableList(resultMessages);
+    }
+
+    /**
+     * Returns a read-only view of all messages.  The view reflects messages added later and is not copied.
+     * @return List<String>
+     */
+    public List<String> getMessageView() {
+        return new MessageView(resultMessages);
+    }
+
+    /**
+     * Returns a read-only view of the messages of a specified category.  The view reflects messages added later and is not copied.
+     * @param msgCategory - the message category
+     * @return List<String>
+     */
+    public List<String> getMessageView(ActivityResultMessageCategory msgCategory) {
+        MessageSequence<ActivityResultMessage> messages = categoryMessages.get(msgCategory);
+        return messages == null ? Collections.<String>emptyList() : new MessageView(messages);
+    }
+
+    /**
+     * Returns a read-only list of messages where category is at least the specified category (inclusive).
+     * If only one matching category has messages, or every category matches, the list is a view and is not copied.
+     * Otherwise the messages are copied in insertion order.
+     * @param minMsgCategory - the minimum message category
+     * @return List<String>
+     */
+    public List<String> getMessageViewMinCategory(ActivityResultMessageCategory minMsgCategory) {
+        if (countAtLeast(minMsgCategory) == resultMessages.size()) {
+            return getMessageView();
+        }
+        ActivityResultMessageCategory onlyCategory = onlyCategoryAtLeast(minMsgCategory);
+        if (onlyCategory != null) {
+            return getMessageView(onlyCategory);
+        }
+        return Collections.unmodifiableList(getMessagesMinCategory(minMsgCategory));
+    }
+
+    /**
+     * Returns the number of messages of a specified category
+     * @param msgCategory - the message category
+     * @return int
+     */
+    public int count(ActivityResultMessageCategory msgCategory) {
+        MessageSequence<ActivityResultMessage> messages = categoryMessages.get(msgCategory);
+        return messages == null ? 0 : messages.size();
+    }
+
+    /**
+     * Returns the number of messages where category is at least the specified category (inclusive)
+     * @param minMsgCategory - the minimum message category
+     * @return int
+     */
+    public int countAtLeast(ActivityResultMessageCategory minMsgCategory) {
+        int count = 0;
+        for (ActivityResultMessageCategory category : CATEGORIES) {
+            if (category.getValue() >= minMsgCategory.getValue()) {
+                count += count(category);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns whether or not any ERROR messages have been added
+     * @return boolean
+     */
+    public boolean hasErrors() {
+        return count(ActivityResultMessageCategory.ERROR) > 0;
+    }
+
+    /**
+     * Returns the single category at or above the minimum that has messages, or null if there are none or several
+     */
+    private ActivityResultMessageCategory onlyCategoryAtLeast(ActivityResultMessageCategory minMsgCategory) {
+        ActivityResultMessageCategory onlyCategory = null;
+        for (ActivityResultMessageCategory category : CATEGORIES) {
+            if (category.getValue() >= minMsgCategory.getValue() && count(category) > 0) {
+                if (onlyCategory != null) {
+                    return null;
+                }
+                onlyCategory = category;
+            }
+        }
+        return onlyCategory;
+    }
+
     /**
      * Add message using default category
      * @param msg
      */
     public void addMessage(String msg) {
-        this.resultMessages.add(new ActivityResultMessage(msg));
+        this.addMessage(new ActivityResultMessage(msg));
     }
 
     /**
@@ -85,7 +180,7 @@ public class ActivityResult {
      * @param msg
      */
     public void addMessage(ActivityResultMessageCategory msgCategory, String msg) {
-        this.resultMessages.add(new ActivityResultMessage(msgCategory, msg));
+        this.addMessage(new ActivityResultMessage(msgCategory, msg));
     }
 
     /**
@@ -93,7 +188,7 @@ public class ActivityResult {
      * @param msg
      */
     public void addMessage(String msg, int atIndex) {
-        this.resultMessages.add(atIndex, new ActivityResultMessage(msg));
+        this.addMessage(new ActivityResultMessage(msg), atIndex);
     }
 
     /**
@@ -101,7 +196,72 @@ public class ActivityResult {
      * @param msg
      */
     public void addMessage(ActivityResultMessageCategory msgCategory, String msg, int atIndex) {
-        this.resultMessages.add(atIndex, new ActivityResultMessage(msgCategory, msg));
+        this.addMessage(new ActivityResultMessage(msgCategory, msg), atIndex);
+    }
+
+    /**
+     * Add a message from a message template using default category.  The message string is built when it is first read.
+     * @param template
+     * @param arguments
+     */
+    public void addMessage(ActivityMessageTemplate template, Object... arguments) {
+        this.addMessage(template.newMessage(ActivityResultMessageCategory.DEFAULT, arguments));
+    }
+
+    /**
+     * Add a message from a message template using specified category.  The message string is built when it is first read.
+     * @param msgCategory
+     * @param template
+     * @param arguments
+     */
+    public void addMessage(ActivityResultMessageCategory msgCategory, ActivityMessageTemplate template, Object... arguments) {
+        this.addMessage(template.newMessage(msgCategory, arguments));
+    }
+
+    /**
+     * Add an existing ActivityResultMessage to the end of the result messages
+     * @param resultMsg
+     */
+    public void addMessage(ActivityResultMessage resultMsg) {
+        this.resultMessages.add(resultMsg);
+        categorySequence(resultMsg.getCategory()).add(resultMsg);
+    }
+
+    /**
+     * Add an existing ActivityResultMessage at specified index.
+     * Adding at the start or the end is constant time; adding anywhere else is linear in the number of messages.
+     * @param resultMsg
+     * @param atIndex
+     */
+    public void addMessage(ActivityResultMessage resultMsg, int atIndex) {
+        if (atIndex == this.resultMessages.size()) {
+            this.addMessage(resultMsg);
+            return;
+        }
+        this.resultMessages.add(atIndex, resultMsg);
+        MessageSequence<ActivityResultMessage> messages = categorySequence(resultMsg.getCategory());
+        if (atIndex == 0) {
+            messages.add(0, resultMsg);
+        }
+        else {
+            //the position within the category is the number of messages of the same category before atIndex
+            int categoryIndex = 0;
+            for (int i = 0; i < atIndex; i++) {
+                if (this.resultMessages.get(i).getCategory() == resultMsg.getCategory()) {
+                    categoryIndex++;
+                }
+            }
+            messages.add(categoryIndex, resultMsg);
+        }
+    }
+
+    private MessageSequence<ActivityResultMessage> categorySequence(ActivityResultMessageCategory msgCategory) {
+        MessageSequence<ActivityResultMessage> messages = categoryMessages.get(msgCategory);
+        if (messages == null) {
+            messages = new MessageSequence<ActivityResultMessage>();
+            categoryMessages.put(msgCategory, messages);
+        }
+        return messages;
     }
 
     /**
@@ -119,7 +279,9 @@ public class ActivityResult {
      * @param msgs
      */
     public void addCategorizedMessages(List<ActivityResultMessage> msgs) {
-        this.resultMessages.addAll(msgs);
+        for(ActivityResultMessage msg : msgs){
+            addMessage(msg);
+        }
     }
 
     /**
@@ -138,6 +300,30 @@ public class ActivityResult {
      */
     public void clearMessages() {
         this.resultMessages.clear();
+        for (MessageSequence<ActivityResultMessage> messages : categoryMessages.values()) {
+            messages.clear();
+        }
+    }
+
+    /**
+     * Read-only list of message strings backed by a list of ActivityResultMessage
+     */
+    private static class MessageView extends AbstractList<String> implements RandomAccess {
+        private final List<ActivityResultMessage> messages;
+
+        MessageView(List<ActivityResultMessage> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public String get(int index) {
+            return messages.get(index).getMessage();
+        }
+
+        @Override
+        public int size() {
+            return messages.size();
+        }
     }
 }
 
@@ -0,0 +1,335 @@
+package com.paypal.common.activities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Bounded cache of the outcomes of cacheable activities (see Activity.isCacheable).
+ * An outcome is keyed by the activity class and the values of its required context keys, and holds the result
+ * status, the messages added by the run and the values of its produced context keys.  When a cacheable
+ * sub-activity is about to be performed with the same inputs as a cached run, the cached outcome is applied
+ * instead.  Context values used as inputs must implement equals and hashCode.  Produced values are cached and added
+ * to later contexts by reference, so they must be immutable: a produced value that is changed after the run would
+ * change the outcome of every run that reuses it.
+ *
+ * <p>Outcomes are spread over SEGMENTS independently locked segments by fingerprint, so concurrent sub-activities
+ * only contend when their fingerprints fall in the same segment.  Once the cache is full, the least recently used
+ * outcome of a segment is evicted, so eviction is only approximately least recently used across the whole cache.
+ * Outcomes expire after the time to live.
+ * Only runs that return normally are cached: outcomes with status UNEXPECTED_SYSTEM_ERROR or SKIPPED, runs that
+ * throw and runs cancelled by the ActivityExecutionPolicy are not.  Messages are copied into and out of the cache, so
+ * changing a message of one result does not affect another.
+ *
+ * <p>Use enum-based singleton pattern which has key advantages over traditional singleton pattern
+ * <li>Easier to write</li>
+ * <li>Serialization is guaranteed by the jvm</li>
+ * <li>Enum is thread-safe; no need for double checked locking</li>
+ */
+public enum ActivityResultCache {
+    INSTANCE;
+    private static final int DEFAULT_MAX_SIZE = 10000;
+    public static final int SEGMENTS = 16;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile long timeToLiveInMs = 0;
+    private volatile boolean enabled = true;
+    private final Segment[] segments = newSegments();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn caching on or off.  When off, cacheable activities are always performed.  It is on by default.
+     *
+     * @param enabled - boolean
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the maximum number of cached outcomes.  Defaults to 10000.
+     *
+     * @param maxSize - int
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getTimeToLiveInMs() {
+        return timeToLiveInMs;
+    }
+
+    /**
+     * Set how long an outcome stays valid after it is cached.  Defaults to 0, meaning outcomes never expire.
+     *
+     * @param timeToLiveInMs - long
+     */
+    public void setTimeToLiveInMs(long timeToLiveInMs) {
+        this.timeToLiveInMs = timeToLiveInMs;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns hits / (hits + misses), or 0 if the cache has not been used
+     *
+     * @return double
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Remove every cached outcome and reset the hit, miss and eviction counts
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size.addAndGet(-segment.size());
+                segment.clear();
+            }
+        }
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * Fingerprint the inputs of an activity: its class and the values of its required context keys
+     */
+    Fingerprint fingerprint(Activity activity, ActivityContext activityContext) {
+        List<ActivityContextKey> requiredKeys = activity.getRequiredContextKeys();
+        if (requiredKeys == null) {
+            requiredKeys = Collections.emptyList();
+        }
+        Object[] values = new Object[requiredKeys.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = activityContext.get(requiredKeys.get(i));
+        }
+        return new Fingerprint(activity.getClass(), values);
+    }
+
+    /**
+     * Returns the cached outcome for a fingerprint, or null if there is none or it has expired
+     */
+    Outcome get(Fingerprint fingerprint) {
+        Outcome outcome;
+        Segment segment = segments[segmentIndex(fingerprint)];
+        synchronized (segment) {
+            outcome = segment.get(fingerprint);
+            long ttl = timeToLiveInMs;
+            if (outcome != null && ttl > 0 && System.currentTimeMillis() - outcome.createdAt > ttl) {
+                segment.remove(fingerprint);
+                size.decrementAndGet();
+                evictions.incrementAndGet();
+                outcome = null;
+            }
+        }
+        if (outcome == null) {
+            misses.incrementAndGet();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+        return outcome;
+    }
+
+    /**
+     * Capture the outcome of a run that returned normally, unless its status shows that it did not complete
+     *
+     * @param fingerprint     - the inputs of the run
+     * @param activity        - the activity that was performed
+     * @param activityContext - the context after the run
+     * @param messages        - the messages added by the run
+     * @return Outcome - the outcome to put in the cache, or null if it must not be cached
+     */
+    Outcome capture(Fingerprint fingerprint, Activity activity, ActivityContext activityContext, List<ActivityResultMessage> messages) {
+        ActivityStatus status = activity.getActivityResult().getStatus();
+        if (status == ActivityStatus.UNEXPECTED_SYSTEM_ERROR || status == ActivityStatus.SKIPPED) {
+            return null;
+        }
+        List<ActivityContextKey> producedKeys = activity.getProducedContextKeys();
+        Object[] producedValues = new Object[producedKeys.size()];
+        for (int i = 0; i < producedValues.length; i++) {
+            producedValues[i] = activityContext.get(producedKeys.get(i));
+        }
+        return new Outcome(fingerprint, status, copy(messages), producedKeys, producedValues);
+    }
+
+    /**
+     * Cache a captured outcome
+     */
+    void put(Outcome outcome) {
+        int index = segmentIndex(outcome.fingerprint);
+        Segment segment = segments[index];
+        synchronized (segment) {
+            if (segment.put(outcome.fingerprint, outcome) == null) {
+                size.incrementAndGet();
+            }
+        }
+        //evict from the other segments first, so that the outcome just cached is the last candidate
+        for (int i = 1; i <= SEGMENTS && size.get() > maxSize; i++) {
+            Segment victim = segments[(index + i) & (SEGMENTS - 1)];
+            synchronized (victim) {
+                Iterator<Outcome> eldest = victim.values().iterator();
+                while (size.get() > maxSize && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                    size.decrementAndGet();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static int segmentIndex(Fingerprint fingerprint) {
+        int hash = fingerprint.hashCode();
+        return (hash ^ (hash >>> 16)) & (SEGMENTS - 1);
+    }
+
+    private static Segment[] newSegments() {
+        Segment[] segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        return segments;
+    }
+
+    private static List<ActivityResultMessage> copy(List<ActivityResultMessage> messages) {
+        List<ActivityResultMessage> copies = new ArrayList<ActivityResultMessage>(messages.size());
+        for (ActivityResultMessage message : messages) {
+            copies.add(message.copy());
+        }
+        return copies;
+    }
+
+    /**
+     * Remove expired outcomes.  Expired outcomes are also removed when they are looked up, so calling this is only
+     * needed to release memory early.
+     */
+    public void removeExpired() {
+        long ttl = timeToLiveInMs;
+        if (ttl <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Outcome> iterator = segment.values().iterator();
+                while (iterator.hasNext()) {
+                    if (now - iterator.next().createdAt > ttl) {
+                        iterator.remove();
+                        size.decrementAndGet();
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Outcomes whose fingerprints hash to one segment, in access order
+     */
+    private static final class Segment extends LinkedHashMap<Fingerprint, Outcome> {
+        private static final long serialVersionUID = 1L;
+
+        Segment() {
+            super(16, 0.75f, true);
+        }
+    }
+
+    /**
+     * Cache key: activity class plus input values
+     */
+    static final class Fingerprint {
+        private final Class<?> activityClass;
+        private final Object[] values;
+        private final int hash;
+
+        Fingerprint(Class<?> activityClass, Object[] values) {
+            this.activityClass = activityClass;
+            this.values = values;
+            this.hash = 31 * activityClass.hashCode() + Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) obj;
+            return hash == other.hash && activityClass == other.activityClass && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Cached status, messages and produced context values of one run
+     */
+    static final class Outcome {
+        private final Fingerprint fingerprint;
+        private final ActivityStatus status;
+        private final List<ActivityResultMessage> messages;
+        private final List<ActivityContextKey> producedKeys;
+        private final Object[] producedValues;
+        private final long createdAt = System.currentTimeMillis();
+
+        Outcome(Fingerprint fingerprint, ActivityStatus status, List<ActivityResultMessage> messages, List<ActivityContextKey> producedKeys, Object[] producedValues) {
+            this.fingerprint = fingerprint;
+            this.status = status;
+            this.messages = messages;
+            this.producedKeys = producedKeys;
+            this.producedValues = producedValues;
+        }
+
+        /**
+         * Replay the run: set the status, add the messages and add the produced values to the context
+         */
+        void applyTo(Activity activity, ActivityContext activityContext) {
+            ActivityResult result = activity.getActivityResult();
+            result.setStatus(status);
+            result.addCategorizedMessages(copy(messages));
+            for (int i = 0; i < producedValues.length; i++) {
+                activityContext.addContext(producedKeys.get(i), producedValues[i]);
+            }
+        }
+    }
+}
@@ -6,10 +6,13 @@ package com.paypal.common.activities;
  * Time: 8:27 AM
  * POJO to encapsulate categorized messages in ActivityStatus.  It will allow us to filter on category for reporting
  * purposes while at the same time maintain insertion order.
+ * Messages created from an ActivityMessageTemplate are rendered the first time getMessage is called.
  */
 public class ActivityResultMessage {
     private ActivityResultMessageCategory category;
     private String message;
+    private ActivityMessageTemplate template;
+    private Object[] arguments;
 
     public ActivityResultMessage(ActivityResultMessageCategory category, String message) {
         this.category = category;
@@ -21,19 +24,59 @@ public class ActivityResultMessage {
         this.message = message;
     }
 
+    public ActivityResultMessage(ActivityResultMessageCategory category, ActivityMessageTemplate template, Object... arguments) {
+        this.category = category;
+        this.template = template;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Returns the code of the template this message was created from, or null for plain string messages
+     * @return String
+     */
+    public String getCode() {
+        return template == null ? null : template.getCode();
+    }
+
+    /**
+     * Returns the template arguments, or null for plain string messages
+     * @return Object[]
+     */
+    public Object[] getArguments() {
+        return arguments;
+    }
+
     public ActivityResultMessageCategory getCategory() {
         return category;
     }
 
+    /**
+     * Sets the category.  ActivityResult indexes messages by category when they are added, so the category
+     * should not be changed after the message has been added to a result.
+     * @param category
+     */
     public void setCategory(ActivityResultMessageCategory category) {
         this.category = category;
     }
 
     public String getMessage() {
+        if (message == null && template != null) {
+            message = template.format(arguments);
+        }
         return message;
     }
 
     public void setMessage(String message) {
         this.message = message;
     }
+
+    /**
+     * Returns a copy of this message that can be changed without affecting it; a template message stays unrendered
+     */
+    ActivityResultMessage copy() {
+        ActivityResultMessage copy = new ActivityResultMessage(category, message);
+        copy.template = template;
+        copy.arguments = arguments == null ? null : arguments.clone();
+        return copy;
+    }
 }
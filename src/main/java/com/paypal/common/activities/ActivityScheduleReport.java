@@ -0,0 +1,75 @@
+package com.paypal.common.activities;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * POJO describing a run of Activity.performSubActivitiesInDependencyOrder.
+ * The critical path is the chain of dependent sub-activities with the longest combined duration; it is the
+ * lower bound on the elapsed time of the run regardless of how many threads are available.
+ */
+public class ActivityScheduleReport {
+    private final List<Activity> criticalPath;
+    private final long criticalPathNanos;
+    private final long elapsedNanos;
+    private final long totalActivityNanos;
+
+    ActivityScheduleReport(List<Activity> criticalPath, long criticalPathNanos, long elapsedNanos, long totalActivityNanos) {
+        this.criticalPath = Collections.unmodifiableList(criticalPath);
+        this.criticalPathNanos = criticalPathNanos;
+        this.elapsedNanos = elapsedNanos;
+        this.totalActivityNanos = totalActivityNanos;
+    }
+
+    /**
+     * Returns the sub-activities on the critical path, in execution order
+     *
+     * @return List&lt;Activity&gt;
+     */
+    public List<Activity> getCriticalPath() {
+        return criticalPath;
+    }
+
+    /**
+     * Returns the combined duration of the sub-activities on the critical path
+     *
+     * @return long
+     */
+    public long getCriticalPathTimeInMs() {
+        return TimeUnit.NANOSECONDS.toMillis(criticalPathNanos);
+    }
+
+    /**
+     * Returns the wall-clock time of the whole run
+     *
+     * @return long
+     */
+    public long getElapsedTimeInMs() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Returns the sum of the durations of every sub-activity, i.e. the time a sequential run would have taken
+     *
+     * @return long
+     */
+    public long getTotalActivityTimeInMs() {
+        return TimeUnit.NANOSECONDS.toMillis(totalActivityNanos);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("criticalPath=[");
+        for (int i = 0; i < criticalPath.size(); i++) {
+            if (i > 0) {
+                sb.append(" -> ");
+            }
+            sb.append(criticalPath.get(i).getClass().getSimpleName());
+        }
+        sb.append("], criticalPathTimeInMs=").append(getCriticalPathTimeInMs());
+        sb.append(", elapsedTimeInMs=").append(getElapsedTimeInMs());
+        sb.append(", totalActivityTimeInMs=").append(getTotalActivityTimeInMs());
+        return sb.toString();
+    }
+}
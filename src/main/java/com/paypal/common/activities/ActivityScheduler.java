@@ -0,0 +1,239 @@
+package com.paypal.common.activities;
+
+import com.paypal.common.exceptions.ActivityException;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Schedules the sub-activities of an activity using a dependency graph built from their context keys.
+ * Sub-activity B depends on sub-activity A when one of B's required context keys is produced by A.
+ * Required keys that no sibling produces are expected to already be in the ActivityContext and do not
+ * add a dependency.
+ * <p/>
+ * A scheduler is built for a single run; the graph reflects the sub-activity list at construction time.
+ */
+class ActivityScheduler {
+    private static Logger logger = Logger.getLogger(ActivityScheduler.class);
+    private final Activity parent;
+    private final List<Activity> activities;
+    private final List<List<Integer>> dependencies;
+    private final List<List<Integer>> dependents;
+    private final int[] topologicalOrder;
+
+    /**
+     * Build the dependency graph for the sub-activities of the given activity
+     *
+     * @param parent - the activity whose sub-activities will be scheduled
+     * @throws ActivityException - if the dependencies are circular
+     */
+    ActivityScheduler(Activity parent) throws ActivityException {
+        this.parent = parent;
+        this.activities = new ArrayList<Activity>(parent.getSubActivities());
+        int count = this.activities.size();
+
+        //map each produced key to the sub-activities that produce it
+        Map<ActivityContextKey, List<Integer>> producers = new HashMap<ActivityContextKey, List<Integer>>();
+        for (int i = 0; i < count; i++) {
+            for (ActivityContextKey key : this.activities.get(i).getProducedContextKeys()) {
+                List<Integer> keyProducers = producers.get(key);
+                if (keyProducers == null) {
+                    keyProducers = new ArrayList<Integer>(1);
+                    producers.put(key, keyProducers);
+                }
+                keyProducers.add(i);
+            }
+        }
+
+        this.dependencies = new ArrayList<List<Integer>>(count);
+        this.dependents = new ArrayList<List<Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            this.dependents.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < count; i++) {
+            Set<Integer> activityDependencies = new LinkedHashSet<Integer>();
+            List<ActivityContextKey> requiredKeys = this.activities.get(i).getRequiredContextKeys();
+            if (requiredKeys != null) {
+                for (ActivityContextKey key : requiredKeys) {
+                    List<Integer> keyProducers = producers.get(key);
+                    if (keyProducers != null) {
+                        activityDependencies.addAll(keyProducers);
+                    }
+                }
+            }
+            activityDependencies.remove(i);
+            this.dependencies.add(new ArrayList<Integer>(activityDependencies));
+            for (Integer dependency : activityDependencies) {
+                this.dependents.get(dependency).add(i);
+            }
+        }
+        this.topologicalOrder = sortTopologically();
+    }
+
+    /**
+     * Kahn's algorithm, preferring insertion order among activities that are ready at the same time
+     *
+     * @return int[] - the indexes of the activities in a valid execution order
+     * @throws ActivityException - if the dependencies are circular
+     */
+    private int[] sortTopologically() throws ActivityException {
+        int count = this.activities.size();
+        int[] remaining = new int[count];
+        for (int i = 0; i < count; i++) {
+            remaining[i] = this.dependencies.get(i).size();
+        }
+        int[] order = new int[count];
+        int sorted = 0;
+        boolean[] done = new boolean[count];
+        boolean progress = true;
+        while (sorted < count && progress) {
+            progress = false;
+            for (int i = 0; i < count; i++) {
+                if (!done[i] && remaining[i] == 0) {
+                    done[i] = true;
+                    order[sorted++] = i;
+                    progress = true;
+                    for (Integer dependent : this.dependents.get(i)) {
+                        remaining[dependent]--;
+                    }
+                }
+            }
+        }
+        if (sorted < count) {
+            List<String> circular = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                if (!done[i]) {
+                    circular.add(this.activities.get(i).getClass().getSimpleName());
+                }
+            }
+            throw new ActivityException("Circular dependency between sub-activities of " + this.parent.getClass().getSimpleName() + ": " + circular);
+        }
+        return order;
+    }
+
+    /**
+     * Perform the sub-activities.  If executor is null they are performed one at a time in topological order,
+     * otherwise every sub-activity is submitted as soon as its dependencies are complete.
+     *
+     * @param activityContext - The current activityContext
+     * @param executor - the executor to perform sub-activities on, or null for sequential execution
+     * @param policy - the execution policy, or null to perform every sub-activity
+     * @return ActivityScheduleReport
+     */
+    ActivityScheduleReport execute(ActivityContext activityContext, ExecutorService executor, ActivityExecutionPolicy policy) {
+        executor = SubActivityRun.executorFor(executor);
+        long[] startTimes = new long[this.activities.size()];
+        long[] endTimes = new long[this.activities.size()];
+        long runStart = System.nanoTime();
+        SubActivityRun run = new SubActivityRun(this.parent, this.activities, activityContext, policy);
+        run.recordTimes(startTimes, endTimes);
+        if (executor == null || this.activities.size() < 2) {
+            for (int index : this.topologicalOrder) {
+                run.perform(index);
+            }
+        }
+        else {
+            new ParallelRun(run, executor).run();
+        }
+        run.awaitCompletion();
+        ActivityScheduleReport report = buildReport(System.nanoTime() - runStart, startTimes, endTimes);
+        if (logger.isDebugEnabled()) {
+            logger.debug(this.parent.getClass().getSimpleName() + " sub-activity schedule: " + report);
+        }
+        return report;
+    }
+
+    /**
+     * Weigh each activity by its measured duration and find the longest path through the graph
+     */
+    private ActivityScheduleReport buildReport(long elapsedNanos, long[] startTimes, long[] endTimes) {
+        int count = this.activities.size();
+        long[] pathNanos = new long[count];
+        int[] predecessor = new int[count];
+        long totalNanos = 0;
+        int last = -1;
+        for (int index : this.topologicalOrder) {
+            //an activity still running after an interrupted wait has no end time yet
+            long duration = Math.max(0, endTimes[index] - startTimes[index]);
+            totalNanos += duration;
+            predecessor[index] = -1;
+            long longestDependency = 0;
+            for (Integer dependency : this.dependencies.get(index)) {
+                if (pathNanos[dependency] > longestDependency || predecessor[index] == -1) {
+                    longestDependency = pathNanos[dependency];
+                    predecessor[index] = dependency;
+                }
+            }
+            pathNanos[index] = longestDependency + duration;
+            if (last == -1 || pathNanos[index] > pathNanos[last]) {
+                last = index;
+            }
+        }
+
+        List<Activity> criticalPath = new ArrayList<Activity>();
+        for (int index = last; index != -1; index = predecessor[index]) {
+            criticalPath.add(0, this.activities.get(index));
+        }
+        return new ActivityScheduleReport(criticalPath, last == -1 ? 0 : pathNanos[last], elapsedNanos, totalNanos);
+    }
+
+    /**
+     * State of a single parallel run.  Each completed or skipped activity releases its dependents; the caller then
+     * waits on the SubActivityRun until every activity has been performed or skipped.
+     */
+    private class ParallelRun {
+        private final SubActivityRun run;
+        private final ExecutorService executor;
+        private final AtomicIntegerArray remainingDependencies;
+
+        ParallelRun(SubActivityRun run, ExecutorService executor) {
+            this.run = run;
+            this.executor = executor;
+            this.remainingDependencies = new AtomicIntegerArray(activities.size());
+            for (int i = 0; i < activities.size(); i++) {
+                this.remainingDependencies.set(i, dependencies.get(i).size());
+            }
+        }
+
+        void run() {
+            for (int i = 0; i < activities.size(); i++) {
+                if (dependencies.get(i).isEmpty()) {
+                    submit(i);
+                }
+            }
+        }
+
+        private void submit(final int index) {
+            Runnable task = ActivityExecution.propagate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        run.perform(index);
+                    }
+                    finally {
+                        for (Integer dependent : dependents.get(index)) {
+                            if (remainingDependencies.decrementAndGet(dependent) == 0) {
+                                submit(dependent);
+                            }
+                        }
+                    }
+                }
+            });
+            try {
+                run.submit(index, task, executor);
+            }
+            catch (RejectedExecutionException e) {
+                logger.warn("Sub-activity executor rejected " + activities.get(index).getClass().getSimpleName() + ". Performing it on the current thread.");
+                task.run();
+            }
+        }
+    }
+}
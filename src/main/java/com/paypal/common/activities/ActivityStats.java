@@ -0,0 +1,93 @@
+package com.paypal.common.activities;
+
+import com.paypal.common.utils.LatencyHistogram;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and status distribution of one activity class or one activity tree path, see ActivityMetrics.
+ * Recording is lock-free and does not allocate.
+ */
+public class ActivityStats {
+    private static final ActivityStatus[] STATUSES = ActivityStatus.values();
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLongArray statusCounts = new AtomicLongArray(STATUSES.length);
+    //path statistics of the sub-activities performed under this path, keyed by activity class
+    private volatile ConcurrentHashMap<Class<?>, ActivityStats> children = null;
+
+    ActivityStats(String name) {
+        this.name = name;
+    }
+
+    void record(long nanos, ActivityStatus status) {
+        latency.record(nanos);
+        statusCounts.incrementAndGet(status.ordinal());
+    }
+
+    /**
+     * Returns the activity class name or tree path these statistics belong to
+     *
+     * @return String
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of runs that finished with a given status
+     *
+     * @param status - ActivityStatus
+     * @return long
+     */
+    public long getStatusCount(ActivityStatus status) {
+        return statusCounts.get(status.ordinal());
+    }
+
+    ConcurrentHashMap<Class<?>, ActivityStats> getChildren() {
+        ConcurrentHashMap<Class<?>, ActivityStats> map = this.children;
+        if (map == null) {
+            synchronized (this) {
+                map = this.children;
+                if (map == null) {
+                    map = new ConcurrentHashMap<Class<?>, ActivityStats>();
+                    this.children = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    void reset() {
+        latency.reset();
+        for (int i = 0; i < STATUSES.length; i++) {
+            statusCounts.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(": ").append(latency).append(", status={");
+        boolean first = true;
+        for (ActivityStatus status : STATUSES) {
+            long statusCount = getStatusCount(status);
+            if (statusCount > 0) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                sb.append(status).append('=').append(statusCount);
+                first = false;
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,173 @@
+package com.paypal.common.activities;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ActivityContext that is safe to share between activities running on different threads,
+ * e.g. sub-activities performed by a sub-activity executor.
+ * <li>Reads do not lock</li>
+ * <li>Writes lock only the stripe that holds the key, so writers of different keys rarely contend</li>
+ * <li>addContext(key, value, false), putIfAbsent and compute are atomic</li>
+ * <li>snapshot() copies the context in one pass over its entries, without blocking writers</li>
+ * Null values are supported in the same way as ActivityContext: the key exists but contextExistsAndNotNull is false.
+ * Unlike ActivityContext, primitive values added with LongContextKey, IntContextKey or DoubleContextKey are boxed.
+ */
+public class ConcurrentActivityContext extends ActivityContext {
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private final ConcurrentHashMap<ActivityContextKey, Object> values;
+
+    /**
+     * ConcurrentHashMap does not allow null values, so null values are stored as this marker
+     */
+    private enum NullValue {
+        INSTANCE
+    }
+
+    /**
+     * Constructor - sized for one write stripe per available processor
+     */
+    public ConcurrentActivityContext() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param concurrencyLevel - the estimated number of threads writing to the context at the same time
+     */
+    public ConcurrentActivityContext(int concurrencyLevel) {
+        this.values = new ConcurrentHashMap<ActivityContextKey, Object>(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, concurrencyLevel);
+    }
+
+    /**
+     * Constructor - copies the entries of an existing Map
+     *
+     * @param contextMap - the initial context data
+     */
+    public ConcurrentActivityContext(Map<ActivityContextKey, Object> contextMap) {
+        this();
+        for (Map.Entry<ActivityContextKey, Object> entry : contextMap.entrySet()) {
+            this.values.put(entry.getKey(), mask(entry.getValue()));
+        }
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NullValue.INSTANCE : value;
+    }
+
+    private static Object unmask(Object value) {
+        return value == NullValue.INSTANCE ? null : value;
+    }
+
+    @Override
+    public void addContext(ActivityContextKey key, Object value, boolean overwrite) {
+        key.checkValue(value);
+        if (overwrite) {
+            this.values.put(key, mask(value));
+        }
+        else {
+            this.putIfAbsent(key, value);
+        }
+    }
+
+    @Override
+    public Object putIfAbsent(ActivityContextKey key, Object value) {
+        key.checkValue(value);
+        Object masked = mask(value);
+        while (true) {
+            Object existing = this.values.putIfAbsent(key, masked);
+            if (existing == null) {
+                return null;
+            }
+            if (existing != NullValue.INSTANCE) {
+                return existing;
+            }
+            //the key exists with a null value, which does not count as present
+            if (this.values.replace(key, NullValue.INSTANCE, masked)) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public Object compute(ActivityContextKey key, ActivityContextUpdater updater) {
+        while (true) {
+            Object current = this.values.get(key);
+            Object newValue = updater.update(key, unmask(current));
+            key.checkValue(newValue);
+            if (current == null) {
+                if (this.values.putIfAbsent(key, mask(newValue)) == null) {
+                    return newValue;
+                }
+            }
+            else if (this.values.replace(key, current, mask(newValue))) {
+                return newValue;
+            }
+        }
+    }
+
+    @Override
+    public void addContext(LongContextKey key, long value) {
+        this.values.put(key, value);
+    }
+
+    @Override
+    public void addContext(IntContextKey key, int value) {
+        this.values.put(key, value);
+    }
+
+    @Override
+    public void addContext(DoubleContextKey key, double value) {
+        this.values.put(key, value);
+    }
+
+    @Override
+    public long getLong(LongContextKey contextKey, long defaultValue) {
+        Object value = this.get(contextKey);
+        return value == null ? defaultValue : ((Number) value).longValue();
+    }
+
+    @Override
+    public int getInt(IntContextKey contextKey, int defaultValue) {
+        Object value = this.get(contextKey);
+        return value == null ? defaultValue : ((Number) value).intValue();
+    }
+
+    @Override
+    public double getDouble(DoubleContextKey contextKey, double defaultValue) {
+        Object value = this.get(contextKey);
+        return value == null ? defaultValue : ((Number) value).doubleValue();
+    }
+
+    @Override
+    public ActivityContext snapshot() {
+        ActivityContextSnapshot snapshot = new ActivityContextSnapshot();
+        for (Map.Entry<ActivityContextKey, Object> entry : this.values.entrySet()) {
+            snapshot.put(entry.getKey(), unmask(entry.getValue()));
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void removeContext(ActivityContextKey key) {
+        this.values.remove(key);
+    }
+
+    @Override
+    public Object get(ActivityContextKey contextKey) {
+        return unmask(this.values.get(contextKey));
+    }
+
+    @Override
+    public boolean contextExists(ActivityContextKey contextKey) {
+        return this.values.containsKey(contextKey);
+    }
+
+    @Override
+    public boolean contextExistsAndNotNull(ActivityContextKey contextKey) {
+        Object value = this.values.get(contextKey);
+        return value != null && value != NullValue.INSTANCE;
+    }
+}
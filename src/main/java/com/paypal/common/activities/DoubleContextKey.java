@@ -0,0 +1,12 @@
+package com.paypal.common.activities;
+
+/**
+ * Key for double values.  ActivityContext stores values added with addContext(DoubleContextKey, double) unboxed, and
+ * getDouble(DoubleContextKey, double) reads them without allocating.
+ */
+public class DoubleContextKey extends TypedActivityContextKey<Double> {
+
+    public DoubleContextKey(String description) {
+        super(description, Double.class);
+    }
+}
@@ -0,0 +1,102 @@
+package com.paypal.common.activities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * The sub-activity list of a frozen activity.  It is still an ArrayList so that getSubActivities keeps its
+ * signature, but every method that would change it throws UnsupportedOperationException, including through
+ * its iterators and sub-lists.  The bulk methods added to ArrayList in Java 8 (removeIf, replaceAll, sort)
+ * are not overridden because this library targets Java 7.
+ */
+class FrozenActivityList extends ArrayList<Activity> {
+    private static final long serialVersionUID = 1L;
+
+    FrozenActivityList(Collection<Activity> activities) {
+        super(activities);
+    }
+
+    @Override
+    public boolean add(Activity activity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(int index, Activity activity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Activity> activities) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Activity> activities) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Activity set(int index, Activity activity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Activity remove(int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(Object activity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> activities) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> activities) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<Activity> iterator() {
+        return view().iterator();
+    }
+
+    @Override
+    public ListIterator<Activity> listIterator() {
+        return view().listIterator();
+    }
+
+    @Override
+    public ListIterator<Activity> listIterator(int index) {
+        return view().listIterator(index);
+    }
+
+    @Override
+    public List<Activity> subList(int fromIndex, int toIndex) {
+        return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+    }
+
+    //wraps a sub-list rather than this list, whose iterator methods would call back into the wrapper
+    private List<Activity> view() {
+        return Collections.unmodifiableList(super.subList(0, size()));
+    }
+}
@@ -0,0 +1,12 @@
+package com.paypal.common.activities;
+
+/**
+ * Key for int values.  ActivityContext stores values added with addContext(IntContextKey, int) unboxed, and
+ * getInt(IntContextKey, int) reads them without allocating.
+ */
+public class IntContextKey extends TypedActivityContextKey<Integer> {
+
+    public IntContextKey(String description) {
+        super(description, Integer.class);
+    }
+}
@@ -0,0 +1,12 @@
+package com.paypal.common.activities;
+
+/**
+ * Key for long values.  ActivityContext stores values added with addContext(LongContextKey, long) unboxed, and
+ * getLong(LongContextKey, long) reads them without allocating.
+ */
+public class LongContextKey extends TypedActivityContextKey<Long> {
+
+    public LongContextKey(String description) {
+        super(description, Long.class);
+    }
+}
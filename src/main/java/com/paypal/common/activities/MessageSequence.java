@@ -0,0 +1,53 @@
+package com.paypal.common.activities;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/**
+ * List used by ActivityResult to keep messages in insertion order.
+ * Elements inserted at index 0 are kept in reverse order in a separate front list, so both prepending and appending
+ * are constant time.  Inserting anywhere else shifts only the part of the list it lands in.
+ *
+ * @param <E> - the element type
+ */
+class MessageSequence<E> extends AbstractList<E> implements RandomAccess {
+    private final ArrayList<E> front = new ArrayList<E>();
+    private final ArrayList<E> back = new ArrayList<E>();
+
+    @Override
+    public E get(int index) {
+        int frontSize = front.size();
+        return index < frontSize ? front.get(frontSize - 1 - index) : back.get(index - frontSize);
+    }
+
+    @Override
+    public int size() {
+        return front.size() + back.size();
+    }
+
+    @Override
+    public void add(int index, E element) {
+        int frontSize = front.size();
+        if (index < 0 || index > frontSize + back.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (index == frontSize + back.size()) {
+            back.add(element);
+        }
+        else if (index <= frontSize) {
+            front.add(frontSize - index, element);
+        }
+        else {
+            back.add(index - frontSize, element);
+        }
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        front.clear();
+        back.clear();
+        modCount++;
+    }
+}
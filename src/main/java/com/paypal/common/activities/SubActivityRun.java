@@ -0,0 +1,266 @@
+package com.paypal.common.activities;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * State of one call to perform the sub-activities of an activity under an ActivityExecutionPolicy.
+ * Every sub-activity is either performed or marked SKIPPED exactly once; the run stops early when the policy's
+ * fail-fast status is reached, the deadline passes or the waiting thread is interrupted.
+ */
+class SubActivityRun {
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int SKIPPED = 3;
+    //the executor whose sub-activity task the current thread is running, if any
+    private static final ThreadLocal<ExecutorService> CURRENT_EXECUTOR = new ThreadLocal<ExecutorService>();
+    private final Activity parent;
+    private final List<Activity> activities;
+    private final ActivityContext activityContext;
+    private final ActivityExecutionPolicy policy;
+    private final long deadline;
+    private final AtomicIntegerArray states;
+    private final AtomicIntegerArray cancelled;
+    private final AtomicReferenceArray<Future<?>> futures;
+    private final CountDownLatch completed;
+    private final AtomicReference<String> stopReason = new AtomicReference<String>();
+    private final AtomicReference<Error> error = new AtomicReference<Error>();
+    private long[] startTimes;
+    private long[] endTimes;
+
+    /**
+     * @param parent          - the activity whose sub-activities are performed
+     * @param activities      - the sub-activities
+     * @param activityContext - The current activityContext
+     * @param policy          - the execution policy, or null to only honor the deadline in the context
+     */
+    SubActivityRun(Activity parent, List<Activity> activities, ActivityContext activityContext, ActivityExecutionPolicy policy) {
+        this.parent = parent;
+        this.activities = activities;
+        this.activityContext = activityContext;
+        this.policy = policy == null ? new ActivityExecutionPolicy() : policy;
+        long contextDeadline = activityContext.getLong(ActivityExecutionPolicy.DEADLINE, 0);
+        long policyDeadline = this.policy.getTimeBudgetInMs() > 0 ? System.currentTimeMillis() + this.policy.getTimeBudgetInMs() : 0;
+        if (contextDeadline == 0 || policyDeadline == 0) {
+            this.deadline = Math.max(contextDeadline, policyDeadline);
+        }
+        else {
+            this.deadline = Math.min(contextDeadline, policyDeadline);
+        }
+        this.states = new AtomicIntegerArray(activities.size());
+        this.cancelled = new AtomicIntegerArray(activities.size());
+        this.futures = new AtomicReferenceArray<Future<?>>(activities.size());
+        this.completed = new CountDownLatch(activities.size());
+    }
+
+    /**
+     * Returns whether or not a run is needed: without a policy or a deadline, sub-activities can be performed directly
+     */
+    static boolean isNeeded(ActivityContext activityContext, ActivityExecutionPolicy policy) {
+        return policy != null || activityContext.contextExistsAndNotNull(ActivityExecutionPolicy.DEADLINE);
+    }
+
+    /**
+     * Returns the executor to perform sub-activities on, or null to perform them on the caller's thread.
+     * A caller that is itself a sub-activity task of the given executor must not wait for tasks queued behind it on
+     * the same pool, unless the pool is a fork-join pool, which adds a thread while one of its threads waits.
+     *
+     * @param executor - the sub-activity executor of the activity, or null
+     * @return ExecutorService
+     */
+    static ExecutorService executorFor(ExecutorService executor) {
+        if (executor != null && !(executor instanceof ForkJoinPool) && CURRENT_EXECUTOR.get() == executor) {
+            return null;
+        }
+        return executor;
+    }
+
+    /**
+     * Record the start and end of each performed sub-activity, in System.nanoTime() units, into the given arrays.
+     * Times are written before the sub-activity is counted as complete, so they are visible once awaitCompletion
+     * returns normally.  Skipped sub-activities keep 0 for both.
+     */
+    void recordTimes(long[] startTimes, long[] endTimes) {
+        this.startTimes = startTimes;
+        this.endTimes = endTimes;
+    }
+
+    /**
+     * Submit a task that performs the sub-activity at the given index and register its future so that it can be
+     * cancelled.  The task is wrapped in a FutureTask rather than passed to submit, because the futures returned by
+     * a ForkJoinPool (see ActivityExecutors.newForkJoinPool) do not interrupt the running thread when cancelled.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException - if the executor does not accept the task
+     */
+    void submit(int index, final Runnable task, final ExecutorService executor) {
+        FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                ExecutorService previous = CURRENT_EXECUTOR.get();
+                CURRENT_EXECUTOR.set(executor);
+                try {
+                    task.run();
+                }
+                finally {
+                    if (previous == null) {
+                        CURRENT_EXECUTOR.remove();
+                    }
+                    else {
+                        CURRENT_EXECUTOR.set(previous);
+                    }
+                }
+            }
+        }, null);
+        executor.execute(future);
+        setFuture(index, future);
+    }
+
+    /**
+     * Register the future of a submitted sub-activity so that it can be cancelled
+     */
+    private void setFuture(int index, Future<?> future) {
+        futures.set(index, future);
+        if (states.get(index) == SKIPPED) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Perform a sub-activity unless the run has stopped, in which case it is marked SKIPPED
+     */
+    void perform(int index) {
+        if (stopReason.get() == null && deadline != 0 && System.currentTimeMillis() >= deadline) {
+            stop("the deadline passed");
+        }
+        if (!states.compareAndSet(index, NEW, RUNNING)) {
+            return;
+        }
+        Activity subActivity = activities.get(index);
+        ActivityResultCache.Outcome outcome = null;
+        if (startTimes != null) {
+            startTimes[index] = System.nanoTime();
+        }
+        try {
+            outcome = parent.performSubActivityAndCapture(subActivity, activityContext);
+        }
+        catch (Error e) {
+            error.compareAndSet(null, e);
+        }
+        finally {
+            states.set(index, DONE);
+            if (cancelled.get(index) == 1) {
+                //the activity was interrupted, so its own status is not meaningful
+                skip(subActivity);
+                if (futures.get(index) != null) {
+                    //clear the interrupt so it does not leak into the executor's next task
+                    Thread.interrupted();
+                }
+            }
+            else {
+                //a cancelled run may have returned a partial result, so only a run that was not cancelled is cached
+                if (outcome != null) {
+                    ActivityResultCache.INSTANCE.put(outcome);
+                }
+                if (policy.isFailFast(subActivity.getActivityResult().getStatus())) {
+                    stop("a sibling finished with status " + subActivity.getActivityResult().getStatus());
+                }
+            }
+            if (endTimes != null) {
+                endTimes[index] = System.nanoTime();
+            }
+            completed.countDown();
+        }
+    }
+
+    /**
+     * Skip every sub-activity that has not started and, if the policy says so, interrupt the running ones
+     */
+    void stop(String reason) {
+        if (!stopReason.compareAndSet(null, reason)) {
+            return;
+        }
+        for (int i = 0; i < activities.size(); i++) {
+            if (states.compareAndSet(i, NEW, SKIPPED)) {
+                skip(activities.get(i));
+                Future<?> future = futures.get(i);
+                if (future != null) {
+                    future.cancel(false);
+                }
+                completed.countDown();
+            }
+            else if (policy.isCancelInFlight() && states.get(i) == RUNNING) {
+                cancelled.set(i, 1);
+                Future<?> future = futures.get(i);
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    private void skip(Activity subActivity) {
+        subActivity.setActivityResultStatus(ActivityStatus.SKIPPED);
+        subActivity.addActivityResultMessage(ActivityResultMessageCategory.INFO, ActivityMessages.SUB_ACTIVITY_SKIPPED, stopReason.get());
+    }
+
+    /**
+     * Wait until every sub-activity has been performed or skipped.  If the deadline passes first, the run is
+     * stopped and running sub-activities are given the chance to return.  If the waiting thread is interrupted,
+     * the run is stopped and this method returns immediately with the interrupt flag set.
+     * On a thread of a fork-join pool, the wait is managed so that the pool can run the queued sub-activities on
+     * another thread.
+     */
+    void awaitCompletion() {
+        try {
+            ForkJoinPool.managedBlock(new CompletionWait(deadline));
+            if (completed.getCount() != 0) {
+                stop("the deadline passed");
+                ForkJoinPool.managedBlock(new CompletionWait(0));
+            }
+        }
+        catch (InterruptedException e) {
+            stop("the parent activity was interrupted");
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    /**
+     * Waits for the sub-activities until the given deadline, or without a time limit if it is 0
+     */
+    private final class CompletionWait implements ForkJoinPool.ManagedBlocker {
+        private final long waitDeadline;
+
+        CompletionWait(long waitDeadline) {
+            this.waitDeadline = waitDeadline;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (waitDeadline == 0) {
+                completed.await();
+            }
+            else {
+                completed.await(Math.max(0, waitDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return completed.getCount() == 0 || (waitDeadline != 0 && System.currentTimeMillis() >= waitDeadline);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.paypal.common.activities;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+/**
+ * ActivityContextKey that declares the type of its value.
+ * The type is registered for the key's ordinal, and every value is checked once when it is written, so
+ * ActivityContext.get(TypedActivityContextKey) can return the value without a cast or a reflective type check.
+ *
+ * @param <T> - the type of the value stored under this key
+ */
+public class TypedActivityContextKey<T> extends ActivityContextKey {
+    private final Class<T> type;
+
+    /**
+     * @param description - the key description
+     * @param type        - the value type
+     */
+    public TypedActivityContextKey(String description, Class<T> type) {
+        super(description, type);
+        this.type = type;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Register the type for the canonical ordinal after deserialization, see ActivityContextKey.readObject
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ActivityContextKeyRegistry.INSTANCE.resolve(getDescription(), type);
+    }
+}
@@ -0,0 +1,15 @@
+package com.paypal.common.dal;
+
+/**
+ * What a connection will be used for, which decides the pool ConnectionManager takes it from
+ */
+public enum AccessMode {
+    /**
+     * Queries only; routed to a read replica when one is available, otherwise to the primary database
+     */
+    READ,
+    /**
+     * Any statement; always routed to the primary database
+     */
+    WRITE
+}
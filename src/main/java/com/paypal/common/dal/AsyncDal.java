@@ -0,0 +1,241 @@
+package com.paypal.common.dal;
+
+import com.paypal.common.exceptions.DalException;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs database work in the background so that independent queries can run at the same time, e.g. the lookups of
+ * an activity:
+ * <pre>
+ * Future&lt;List&lt;Account&gt;&gt; accounts = asyncDal.query("SELECT ... FROM account WHERE id = ?", accountMapper, accountId);
+ * Future&lt;List&lt;Limit&gt;&gt; limits = asyncDal.query("SELECT ... FROM limits WHERE id = ?", limitMapper, accountId);
+ * process(accounts.get(), limits.get());
+ * </pre>
+ * The number of queries running at once is bounded by a semaphore sized to the connection pool, so that work
+ * queues in the executor instead of in the pool, where it could time out.  By default the work runs on a dedicated
+ * executor with one daemon thread per permit.  When a shared executor is supplied, the semaphore still protects the pool.
+ * Failures are reported by Future.get as an ExecutionException whose cause is a DalException; awaitAll unwraps them.
+ */
+public class AsyncDal {
+    private static Logger logger = Logger.getLogger(AsyncDal.class);
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger(1);
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Semaphore permits;
+    private final int maxConcurrentQueries;
+
+    /**
+     * Constructor for an AsyncDal that runs at most as many queries at once as the primary pool has connections
+     */
+    public AsyncDal() {
+        this(Math.max(1, ConnectionManager.INSTANCE.getPrimaryPool().getMaxTotalConnections()));
+    }
+
+    /**
+     * Constructor for an AsyncDal with its own executor
+     *
+     * @param maxConcurrentQueries - the maximum number of queries running at once
+     */
+    public AsyncDal(int maxConcurrentQueries) {
+        this(newExecutor(maxConcurrentQueries), maxConcurrentQueries, true);
+    }
+
+    /**
+     * Constructor for an AsyncDal that runs its work on a shared executor.  The executor is not shut down by shutdown.
+     *
+     * @param executor             - runs the work
+     * @param maxConcurrentQueries - the maximum number of queries running at once
+     */
+    public AsyncDal(ExecutorService executor, int maxConcurrentQueries) {
+        this(executor, maxConcurrentQueries, false);
+    }
+
+    private AsyncDal(ExecutorService executor, int maxConcurrentQueries, boolean ownsExecutor) {
+        if (maxConcurrentQueries < 1) {
+            throw new IllegalArgumentException("maxConcurrentQueries must be at least 1: " + maxConcurrentQueries);
+        }
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.maxConcurrentQueries = maxConcurrentQueries;
+        this.permits = new Semaphore(maxConcurrentQueries, true);
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        final String namePrefix = "dal-async-" + POOL_NUMBER.getAndIncrement() + "-thread-";
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public int getMaxConcurrentQueries() {
+        return maxConcurrentQueries;
+    }
+
+    /**
+     * Returns the number of queries that are running
+     * @return int
+     */
+    public int getActiveQueries() {
+        return maxConcurrentQueries - permits.availablePermits();
+    }
+
+    /**
+     * Run work with a connection in the background
+     *
+     * @param accessMode - the mode the connection is taken from ConnectionManager with
+     * @param callback   - the work
+     * @return Future - the result of the work
+     */
+    public <T> Future<T> execute(final AccessMode accessMode, final ConnectionCallback<T> callback) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws DalException {
+                return executeNow(accessMode, callback);
+            }
+        });
+    }
+
+    /**
+     * Run a query in the background and map all of its rows
+     *
+     * @param sql        - a SELECT statement with ? placeholders
+     * @param rowMapper  - maps each row
+     * @param parameters - the values of the placeholders, in order
+     * @return Future - the mapped rows
+     */
+    public <T> Future<List<T>> query(final String sql, final RowMapper<T> rowMapper, final Object... parameters) {
+        return execute(AccessMode.READ, new ConnectionCallback<List<T>>() {
+            @Override
+            public List<T> doWithConnection(Connection connection) throws SQLException {
+                return DalUtils.queryForList(connection, sql, rowMapper, parameters);
+            }
+        });
+    }
+
+    /**
+     * Run an INSERT, UPDATE or DELETE statement in the background on the primary database
+     *
+     * @param sql        - the statement with ? placeholders
+     * @param parameters - the values of the placeholders, in order
+     * @return Future - the number of rows affected
+     */
+    public Future<Integer> update(final String sql, final Object... parameters) {
+        return execute(AccessMode.WRITE, new ConnectionCallback<Integer>() {
+            @Override
+            public Integer doWithConnection(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                try {
+                    DalUtils.bindParameters(statement, parameters);
+                    return statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Run work with a connection on the current thread, waiting for a permit first
+     */
+    private <T> T executeNow(AccessMode accessMode, ConnectionCallback<T> callback) throws DalException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DalException("Interrupted while waiting to run a query", e);
+        }
+        try {
+            Connection connection = ConnectionManager.INSTANCE.getConnection(accessMode);
+            try {
+                return callback.doWithConnection(connection);
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            logger.error("SQLException encountered in AsyncDal: " + e.getMessage(), e);
+            throw new DalException("SQLException encountered in AsyncDal: " + e.getMessage(), e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Wait for the results of several futures, in order.  If one fails, the others are cancelled.
+     *
+     * @param futures - the futures to wait for
+     * @param timeout - the maximum time to wait for all of them
+     * @param unit    - the unit of the timeout
+     * @return List - the results, in the order of the futures
+     * @throws DalException if any of the work failed, the timeout passed or the current thread was interrupted
+     */
+    public static <T> List<T> awaitAll(List<? extends Future<? extends T>> futures, long timeout, TimeUnit unit) throws DalException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<? extends T> future : futures) {
+                results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+            return results;
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            if (e.getCause() instanceof DalException) {
+                throw (DalException) e.getCause();
+            }
+            throw new DalException("Query failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            cancelAll(futures);
+            throw new DalException("Queries did not complete within " + timeout + " " + unit, e);
+        } catch (CancellationException e) {
+            cancelAll(futures);
+            throw new DalException("Query was cancelled", e);
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new DalException("Interrupted while waiting for queries", e);
+        }
+    }
+
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Shut down the executor if this AsyncDal created it.  Work already submitted still runs.
+     * A shared executor is left running.
+     */
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
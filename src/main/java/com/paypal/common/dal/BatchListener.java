@@ -0,0 +1,14 @@
+package com.paypal.common.dal;
+
+/**
+ * Receives the result of every batch a BatchWriter writes, including batches flushed automatically
+ */
+public interface BatchListener {
+
+    /**
+     * Called after a batch has been committed or has failed, on the thread that flushed it
+     *
+     * @param batchResult - the outcome of the batch
+     */
+    void batchWritten(BatchResult batchResult);
+}
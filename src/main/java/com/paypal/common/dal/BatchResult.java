@@ -0,0 +1,132 @@
+package com.paypal.common.dal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of one batch written by a BatchWriter.
+ * A batch either commits completely, or, if a row fails, reports which rows failed and which rows were not written.
+ */
+public class BatchResult {
+    private final int batchNumber;
+    private final int rowCount;
+    private final int rowsWritten;
+    private final List<Row> failedRows;
+    private final List<Row> unwrittenRows;
+    private final Exception cause;
+
+    BatchResult(int batchNumber, int rowCount, int rowsWritten, List<Row> failedRows, List<Row> unwrittenRows, Exception cause) {
+        this.batchNumber = batchNumber;
+        this.rowCount = rowCount;
+        this.rowsWritten = rowsWritten;
+        this.failedRows = Collections.unmodifiableList(failedRows);
+        this.unwrittenRows = Collections.unmodifiableList(unwrittenRows);
+        this.cause = cause;
+    }
+
+    /**
+     * Returns the sequence number of the batch within its writer, starting at 1
+     * @return int
+     */
+    public int getBatchNumber() {
+        return batchNumber;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of rows that were committed
+     * @return int
+     */
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Returns whether or not every row of the batch was committed
+     * @return boolean
+     */
+    public boolean isSuccess() {
+        return cause == null;
+    }
+
+    /**
+     * Returns the rows the database rejected
+     * @return List&lt;Row&gt;
+     */
+    public List<Row> getFailedRows() {
+        return failedRows;
+    }
+
+    /**
+     * Returns every row that was not committed: the failed rows plus the rows that were rolled back or not executed.
+     * These rows can be added to a writer again.
+     * @return List&lt;Row&gt;
+     */
+    public List<Row> getUnwrittenRows() {
+        return unwrittenRows;
+    }
+
+    /**
+     * Returns the exception that made the batch fail, or null if it succeeded
+     * @return Exception
+     */
+    public Exception getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return "batch " + batchNumber + ": rows=" + rowCount + ", written=" + rowsWritten + ", failed=" + failedRows.size()
+                + (cause == null ? "" : ", cause=" + cause.getMessage());
+    }
+
+    /**
+     * A statement and the parameters it was added with
+     */
+    public static class Row {
+        private final String sql;
+        private final Object[] parameters;
+        private String failure;
+
+        Row(String sql, Object[] parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public Object[] getParameters() {
+            return parameters.clone();
+        }
+
+        /**
+         * Returns the parameters without copying them, for binding
+         */
+        Object[] getParameterValues() {
+            return parameters;
+        }
+
+        /**
+         * Returns why the database rejected the row, or null if it was not rejected
+         * @return String
+         */
+        public String getFailure() {
+            return failure;
+        }
+
+        void setFailure(String failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public String toString() {
+            return sql + " " + Arrays.toString(parameters) + (failure == null ? "" : " - " + failure);
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.paypal.common.dal;
+
+import com.paypal.common.exceptions.DalException;
+import org.apache.log4j.Logger;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes rows to the primary database in JDBC batches instead of one round trip per row.
+ * <p/>
+ * Rows are added with add(sql, parameters).  Each distinct SQL string is prepared once and reused for the life of the
+ * writer, which holds one connection from ConnectionManager until it is closed.  Pending rows are executed and
+ * committed as one batch when the batch size is reached, when the flush interval has passed since the first pending
+ * row, on flush and on close.  Within a batch, rows are executed in the order they were added: each run of consecutive
+ * rows with the same SQL is sent as one JDBC batch, so interleaving statements costs extra round trips but never
+ * reorders writes.  Writers whose rows are independent of each other can opt in to groupStatements, which executes
+ * all the rows of each SQL together, in the order the SQL was first added.
+ * <p/>
+ * By default a batch is atomic: if any row fails, the batch is rolled back and every row is reported as unwritten.
+ * With commitPartialBatches, the rows the database accepted are committed and only the failed and not executed rows
+ * are reported.  Each batch's BatchResult is returned by flush and passed to the BatchListener, if any.
+ * <p/>
+ * A writer is thread-safe, but rows added from several threads share batches.
+ */
+public class BatchWriter implements AutoCloseable {
+    private static Logger logger = Logger.getLogger(BatchWriter.class);
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "batch-writer-flusher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final int batchSize;
+    private final long flushIntervalInMs;
+    private final BatchListener listener;
+    private boolean commitPartialBatches = false;
+    private boolean groupStatements = false;
+    private Connection connection = null;
+    private boolean originalAutoCommit = true;
+    private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+    private List<BatchResult.Row> pendingRows = new ArrayList<BatchResult.Row>();
+    private long firstPendingTime = 0;
+    private int batchNumber = 0;
+    private boolean closed = false;
+    private ScheduledFuture<?> flushTask = null;
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+    private final AtomicLong batchesWritten = new AtomicLong();
+
+    /**
+     * Constructor for a writer that flushes only when the batch is full, on flush and on close
+     *
+     * @param batchSize - the number of rows per batch
+     */
+    public BatchWriter(int batchSize) {
+        this(batchSize, 0, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param batchSize         - the number of rows per batch
+     * @param flushIntervalInMs - the longest a row may wait before its batch is flushed, or 0 for no limit
+     * @param listener          - receives the result of every batch, or null
+     */
+    public BatchWriter(int batchSize, long flushIntervalInMs, BatchListener listener) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.flushIntervalInMs = flushIntervalInMs;
+        this.listener = listener;
+        if (flushIntervalInMs > 0) {
+            long period = Math.max(1, flushIntervalInMs / 2);
+            flushTask = FLUSHER.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushIfDue();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isCommitPartialBatches() {
+        return commitPartialBatches;
+    }
+
+    /**
+     * Commit the rows the database accepted when other rows of the same batch fail, rather than rolling back the batch
+     *
+     * @param commitPartialBatches - boolean
+     */
+    public synchronized void setCommitPartialBatches(boolean commitPartialBatches) {
+        this.commitPartialBatches = commitPartialBatches;
+    }
+
+    public boolean isGroupStatements() {
+        return groupStatements;
+    }
+
+    /**
+     * Execute the rows of each SQL together, in the order the SQL was first added to the batch, rather than in the
+     * order the rows were added.  This saves round trips when statements are interleaved, but is only safe when no
+     * row depends on an earlier row of a different statement, e.g. through a foreign key.
+     *
+     * @param groupStatements - boolean
+     */
+    public synchronized void setGroupStatements(boolean groupStatements) {
+        this.groupStatements = groupStatements;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getFlushIntervalInMs() {
+        return flushIntervalInMs;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getRowsFailed() {
+        return rowsFailed.get();
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    /**
+     * Returns the number of rows added but not yet flushed
+     * @return int
+     */
+    public synchronized int getPendingRows() {
+        return pendingRows.size();
+    }
+
+    /**
+     * Add a row.  The batch is flushed if it is full or the flush interval has passed.
+     *
+     * @param sql        - an INSERT, UPDATE or DELETE statement with ? placeholders
+     * @param parameters - the values of the placeholders, in order
+     * @return BatchResult - the result of the batch if this row caused a flush, otherwise null
+     * @throws DalException if the writer is closed, no connection can be obtained or the statement cannot be prepared
+     */
+    public synchronized BatchResult add(String sql, Object... parameters) throws DalException {
+        if (closed) {
+            throw new DalException("BatchWriter is closed");
+        }
+        try {
+            //prepared now so that bad SQL is reported to the caller that added it
+            getStatement(sql);
+        } catch (SQLException e) {
+            //the rows pending so far have not been executed yet, so they survive on the next connection
+            closeConnection();
+            throw new DalException("Unable to add row to batch for " + sql + ": " + e.getMessage(), e);
+        }
+        if (pendingRows.isEmpty()) {
+            firstPendingTime = System.currentTimeMillis();
+        }
+        pendingRows.add(new BatchResult.Row(sql, parameters.clone()));
+        if (pendingRows.size() >= batchSize || isFlushDue()) {
+            return flush();
+        }
+        return null;
+    }
+
+    private boolean isFlushDue() {
+        return flushIntervalInMs > 0 && !pendingRows.isEmpty() && System.currentTimeMillis() - firstPendingTime >= flushIntervalInMs;
+    }
+
+    /**
+     * Flush if the flush interval has passed since the first pending row; called periodically by the flusher thread
+     */
+    private synchronized void flushIfDue() {
+        if (!closed && isFlushDue()) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns the prepared statement for the SQL, taking a connection from the pool first if the writer has none
+     */
+    private PreparedStatement getStatement(String sql) throws DalException, SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = getOpenConnection().prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private Connection getOpenConnection() throws DalException, SQLException {
+        if (connection == null) {
+            connection = ConnectionManager.INSTANCE.getConnection(AccessMode.WRITE);
+            originalAutoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+        }
+        return connection;
+    }
+
+    /**
+     * Execute and commit the pending rows as one batch
+     *
+     * @return BatchResult - the result of the batch, or null if there were no pending rows
+     */
+    public synchronized BatchResult flush() {
+        if (pendingRows.isEmpty()) {
+            return null;
+        }
+        List<BatchResult.Row> rows = pendingRows;
+        pendingRows = new ArrayList<BatchResult.Row>();
+        firstPendingTime = 0;
+        if (groupStatements) {
+            rows = groupBySql(rows);
+        }
+        BatchResult batchResult = executeBatch(++batchNumber, rows);
+        rowsWritten.addAndGet(batchResult.getRowsWritten());
+        rowsFailed.addAndGet(batchResult.getUnwrittenRows().size());
+        batchesWritten.incrementAndGet();
+        if (!batchResult.isSuccess()) {
+            logger.warn("BatchWriter " + batchResult);
+        }
+        if (listener != null) {
+            try {
+                listener.batchWritten(batchResult);
+            } catch (RuntimeException e) {
+                logger.error("BatchListener failed: " + e.getMessage(), e);
+            }
+        }
+        return batchResult;
+    }
+
+    private BatchResult executeBatch(int number, List<BatchResult.Row> rows) {
+        int rowCount = rows.size();
+        List<BatchResult.Row> failedRows = new ArrayList<BatchResult.Row>();
+        List<BatchResult.Row> unwrittenRows = new ArrayList<BatchResult.Row>();
+        Exception cause = null;
+        boolean connectionBroken = false;
+        int start = 0;
+        while (start < rowCount) {
+            //the run of consecutive rows with the same SQL
+            String sql = rows.get(start).getSql();
+            int end = start + 1;
+            while (end < rowCount && rows.get(end).getSql().equals(sql)) {
+                end++;
+            }
+            List<BatchResult.Row> run = rows.subList(start, end);
+            start = end;
+            if (cause != null) {
+                //an earlier run failed, so this one is not executed
+                unwrittenRows.addAll(run);
+                continue;
+            }
+            PreparedStatement statement;
+            try {
+                statement = getStatement(sql);
+            } catch (Exception e) {
+                cause = e;
+                connectionBroken = true;
+                unwrittenRows.addAll(run);
+                continue;
+            }
+            BatchResult.Row row = null;
+            try {
+                for (BatchResult.Row runRow : run) {
+                    row = runRow;
+                    DalUtils.bindParameters(statement, row.getParameterValues());
+                    statement.addBatch();
+                }
+                row = null;
+                statement.executeBatch();
+            } catch (BatchUpdateException e) {
+                cause = e;
+                collectFailedRows(run, e, failedRows, unwrittenRows);
+                clearBatch(statement);
+            } catch (SQLException e) {
+                cause = e;
+                if (row != null) {
+                    //the row could not be bound, so nothing of the run was sent
+                    row.setFailure(e.getMessage());
+                    failedRows.add(row);
+                    clearBatch(statement);
+                }
+                else {
+                    connectionBroken = true;
+                }
+                unwrittenRows.addAll(run);
+            }
+        }
+        boolean commit = cause == null || (commitPartialBatches && !connectionBroken);
+        try {
+            if (connection == null) {
+                //no connection could be obtained, so nothing was executed
+                commit = false;
+            }
+            else if (commit) {
+                connection.commit();
+            }
+            else {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            if (cause == null) {
+                cause = e;
+            }
+            connectionBroken = true;
+            commit = false;
+        }
+        if (!commit) {
+            unwrittenRows = rows;
+        }
+        if (connectionBroken) {
+            //the next row gets a fresh connection
+            closeConnection();
+        }
+        return new BatchResult(number, rowCount, rowCount - unwrittenRows.size(), failedRows, unwrittenRows, cause);
+    }
+
+    private static List<BatchResult.Row> groupBySql(List<BatchResult.Row> rows) {
+        Map<String, List<BatchResult.Row>> groups = new LinkedHashMap<String, List<BatchResult.Row>>();
+        for (BatchResult.Row row : rows) {
+            List<BatchResult.Row> group = groups.get(row.getSql());
+            if (group == null) {
+                group = new ArrayList<BatchResult.Row>();
+                groups.put(row.getSql(), group);
+            }
+            group.add(row);
+        }
+        List<BatchResult.Row> grouped = new ArrayList<BatchResult.Row>(rows.size());
+        for (List<BatchResult.Row> group : groups.values()) {
+            grouped.addAll(group);
+        }
+        return grouped;
+    }
+
+    /**
+     * Work out which rows of a statement failed from the update counts.  Drivers either report EXECUTE_FAILED for
+     * each failed row and carry on, or stop at the first failed row and report counts only for the rows before it.
+     */
+    private static void collectFailedRows(List<BatchResult.Row> rows, BatchUpdateException e,
+                                          List<BatchResult.Row> failedRows, List<BatchResult.Row> unwrittenRows) {
+        int[] updateCounts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+        for (int i = 0; i < rows.size(); i++) {
+            BatchResult.Row row = rows.get(i);
+            if (i < updateCounts.length) {
+                if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                    row.setFailure(e.getMessage());
+                    failedRows.add(row);
+                    unwrittenRows.add(row);
+                }
+            }
+            else {
+                if (i == updateCounts.length) {
+                    row.setFailure(e.getMessage());
+                    failedRows.add(row);
+                }
+                unwrittenRows.add(row);
+            }
+        }
+    }
+
+    private void clearBatch(PreparedStatement statement) {
+        try {
+            statement.clearBatch();
+        } catch (SQLException e) {
+            logger.warn("Unable to clear batch: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close the prepared statements and return the connection to the pool with its original auto-commit mode, which
+     * the pool does not reset
+     */
+    private void closeConnection() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.warn("Unable to close statement: " + e.getMessage());
+            }
+        }
+        statements.clear();
+        if (connection != null) {
+            try {
+                if (originalAutoCommit) {
+                    //nothing is left uncommitted here: every flush ends in a commit or a rollback
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                logger.warn("Unable to restore auto-commit: " + e.getMessage());
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn("Unable to close connection: " + e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    /**
+     * Flush the pending rows, close the prepared statements and return the connection to the pool.
+     * The result of the last batch is passed to the listener, and logged if it failed.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        flush();
+        closeConnection();
+        closed = true;
+    }
+}
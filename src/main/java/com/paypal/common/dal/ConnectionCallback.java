@@ -0,0 +1,20 @@
+package com.paypal.common.dal;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Work done with a connection lent by AsyncDal.  The connection is closed by AsyncDal when the work returns,
+ * so implementations must not keep it.
+ *
+ * @param <T> - the type of the result
+ */
+public interface ConnectionCallback<T> {
+
+    /**
+     * @param connection - an open connection
+     * @return T - the result of the work
+     * @throws SQLException
+     */
+    T doWithConnection(Connection connection) throws SQLException;
+}
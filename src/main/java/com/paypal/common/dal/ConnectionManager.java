@@ -1,22 +1,42 @@
 package com.paypal.common.dal;
 
-import com.paypal.common.exceptions.ConfigException;
 import com.paypal.common.exceptions.DalException;
+import com.paypal.common.exceptions.PoolExhaustedException;
 import com.paypal.common.utils.PropertyManager;
-import com.jolbox.bonecp.BoneCP;
-import com.jolbox.bonecp.BoneCPConfig;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import java.sql.Connection;
-import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: dev
  * Date: 4/3/13
  * Time: 11:51 AM
  *
- * <p>Singleton class to manage connections using BoneCP Connection Pool library
+ * <p>Singleton class to manage connections using BoneCP Connection Pool library.
+ * The primary database is configured by the unprefixed db properties.  Read replicas are listed by name in
+ * dbReplicas, e.g. "replica1,replica2", and configured by the same properties prefixed with their name, e.g.
+ * replica1.dbConnectionUrl; any property a replica does not set is taken from the primary.
+ *
+ * <p>getConnection(AccessMode.READ) routes to the replica with the fewest connections in use.  A replica that fails
+ * to hand out a connection is ejected from rotation for dbReplicaEjectionInMs and the request moves on to the next
+ * replica, then to the primary.  A replica that is merely exhausted, i.e. had every connection in use until the
+ * connection timeout passed, is not ejected; the request just moves on.  Writes always go to the primary.
+ *
+ * <p>Pool telemetry is available from each ConnectionPool and over JMX, see ConnectionPool.  The primary pool is
+ * registered as com.paypal.common.dal:type=ConnectionPool,name=default; use getPrimaryPool, getPool or
+ * getAllStatistics rather than the ConnectionManager itself.
+ *
+ * <p>Set dbWarmupOnStartup=true to open and validate the minimum number of connections of every pool when the
+ * ConnectionManager is first used, instead of on demand.  A failed warmup is logged and connections are then opened on
+ * demand, so the ConnectionManager recovers once the database is back.  Applications that must not start taking
+ * traffic without a database should call warmUp at startup instead, which throws DalException.
  *
  * <p>Use enum-based singleton pattern which has key advantages over traditional singleton pattern
  * <li>Easier to write</li>
@@ -26,87 +46,118 @@ import java.util.ArrayList;
 public enum ConnectionManager {
     INSTANCE;
     private Logger logger = Logger.getLogger(ConnectionManager.class);
-    private BoneCP connectionPool = null;
-    private static final int PARTITION_COUNT = 1;
-    private static final int MIN_CONNECTIONS_PER_PARTITION = 1;
-    private static final int MAX_CONNECTIONS_PER_PARTITION = 10;
-    private static final int CONNECTION_TIMEOUT = 5000;
-    private static final int CONNECTION_RETRIES = 3;
+    private static final long REPLICA_EJECTION_TIME = 30000;
+    public final static String PRIMARY_POOL_NAME = "default";
     public final static String PROP_DB_DRIVER = "dbDriverName";
     public final static String PROP_DB_CONNECTION_URL = "dbConnectionUrl";
     public final static String PROP_DB_USERNAME = "dbUser";
     public final static String PROP_DB_PASSWORD = "dbPassword";
-
+    public final static String PROP_DB_PARTITION_COUNT = "dbPartitionCount";
+    public final static String PROP_DB_MIN_CONNECTIONS_PER_PARTITION = "dbMinConnectionsPerPartition";
+    public final static String PROP_DB_MAX_CONNECTIONS_PER_PARTITION = "dbMaxConnectionsPerPartition";
+    public final static String PROP_DB_CONNECTION_TIMEOUT = "dbConnectionTimeoutInMs";
+    public final static String PROP_DB_CONNECTION_RETRIES = "dbAcquireRetryAttempts";
+    public final static String PROP_DB_ACQUIRE_RETRY_DELAY = "dbAcquireRetryDelayInMs";
+    public final static String PROP_DB_REPLICAS = "dbReplicas";
+    public final static String PROP_DB_REPLICA_EJECTION_TIME = "dbReplicaEjectionInMs";
+    public final static String PROP_DB_WARMUP = "dbWarmupOnStartup";
+    public final static String PROP_DB_VALIDATION_QUERY = "dbValidationQuery";
+    public final static String PROP_DB_WARMUP_TIMEOUT = "dbWarmupTimeoutInMs";
+    private final ConnectionPool primary;
+    private final ConnectionPool[] replicas;
+    private final Map<String, ConnectionPool> pools;
+    private final AtomicInteger nextReplica = new AtomicInteger();
 
     private ConnectionManager(){
-        initConnectionPool();
+        primary = new ConnectionPool(PRIMARY_POOL_NAME, "");
+        Map<String, ConnectionPool> namedPools = new LinkedHashMap<String, ConnectionPool>();
+        namedPools.put(PRIMARY_POOL_NAME, primary);
+        List<ConnectionPool> replicaPools = new ArrayList<ConnectionPool>();
+        String replicaNames = PropertyManager.INSTANCE.getProperty(PROP_DB_REPLICAS);
+        if (StringUtils.isNotBlank(replicaNames)) {
+            for (String replicaName : StringUtils.split(replicaNames, ", ")) {
+                if (namedPools.containsKey(replicaName)) {
+                    logger.warn("Ignoring duplicate replica name in " + PROP_DB_REPLICAS + ": " + replicaName);
+                    continue;
+                }
+                ConnectionPool replica = new ConnectionPool(replicaName, replicaName + ".");
+                namedPools.put(replicaName, replica);
+                replicaPools.add(replica);
+            }
+        }
+        pools = Collections.unmodifiableMap(namedPools);
+        replicas = replicaPools.toArray(new ConnectionPool[replicaPools.size()]);
+        for (ConnectionPool pool : pools.values()) {
+            pool.init();
+        }
+        if (PropertyManager.INSTANCE.getBooleanProperty(PROP_DB_WARMUP, false)) {
+            try {
+                warmUp();
+            } catch (DalException e) {
+                //not thrown: an exception here would leave the enum, and so every later use of it, unusable for good
+                logger.error("Warmup of the connection pools failed, connections will be opened on demand: " + e.getMessage(), e);
+            }
+        }
     }
 
     /**
-     * Implementations must provide the required parameters to configure the connection pool
-     * Some implementations may have these configured in properties files.  Others may choose to pass it in via another mode.
+     * Open and validate the minimum number of connections of every pool, the connections of each pool in parallel.
+     * A replica that fails is ejected from rotation, so reads go elsewhere until it recovers.
+     * Applications can call this at startup, before taking traffic, instead of setting dbWarmupOnStartup.
+     *
+     * @return long - the time it took for all pools to be ready, in milliseconds
+     * @throws DalException if the primary database is unreachable
      */
-    private void initConnectionPool() {
-        try {
-            ArrayList<String> missingProperties = new ArrayList<String>();
-
-            String dbDriver = PropertyManager.INSTANCE.getProperty(PROP_DB_DRIVER);
-            if(dbDriver == null || dbDriver.isEmpty())
-            {
-                missingProperties.add(PROP_DB_DRIVER);
-            }
-
-            String connectionUrl = PropertyManager.INSTANCE.getProperty(PROP_DB_CONNECTION_URL);
-            if(connectionUrl == null || connectionUrl.isEmpty())
-            {
-                missingProperties.add(PROP_DB_CONNECTION_URL);
-            }
-
-            String dbUser = PropertyManager.INSTANCE.getProperty(PROP_DB_USERNAME);
-            if(dbUser == null || dbUser.isEmpty())
-            {
-                missingProperties.add(PROP_DB_USERNAME);
+    public long warmUp() throws DalException {
+        long start = System.currentTimeMillis();
+        primary.warmUp();
+        for (ConnectionPool replica : replicas) {
+            try {
+                replica.warmUp();
+            } catch (DalException e) {
+                eject(replica, e);
             }
+        }
+        long timeToReady = System.currentTimeMillis() - start;
+        logger.info("All connection pools are ready in " + timeToReady + " ms");
+        return timeToReady;
+    }
 
-            String dbPassword = PropertyManager.INSTANCE.getProperty(PROP_DB_PASSWORD);
-            if(dbPassword == null || dbPassword.isEmpty())
-            {
-                missingProperties.add(PROP_DB_PASSWORD);
-            }
+    /**
+     * Returns the pool of the primary database
+     * @return ConnectionPool
+     */
+    public ConnectionPool getPrimaryPool() {
+        return primary;
+    }
 
-            if(!missingProperties.isEmpty()){
-                String msg = "The following database properties are missing from the application properties file: " + missingProperties;
-                logger.error(msg);
-                throw new ConfigException(msg);
-            }
+    /**
+     * Returns a pool by name, or null if there is no such pool
+     * @param name - PRIMARY_POOL_NAME or the name of a replica
+     * @return ConnectionPool
+     */
+    public ConnectionPool getPool(String name) {
+        return pools.get(name);
+    }
 
-            try {
-                //logger.info("Attempting to load database driver: " + dbDriver);
-                // Try to load the driver.  If it does not exist on the classpath, throw an exception right away
-                Class.forName(dbDriver);
-            } catch (ClassNotFoundException e) {
-                logger.error(e);
-                throw e;
-            }
+    /**
+     * Returns the names of all pools, primary first
+     * @return List&lt;String&gt;
+     */
+    public List<String> getPoolNames() {
+        return new ArrayList<String>(pools.keySet());
+    }
 
-            logger.info("Attempting to configure connection pool for url: " + connectionUrl);
-            BoneCPConfig config = new BoneCPConfig();
-            config.setJdbcUrl(connectionUrl);
-            config.setUsername(dbUser);
-            config.setPassword(dbPassword);
-            config.setMinConnectionsPerPartition(MIN_CONNECTIONS_PER_PARTITION);    //the minimum number on connections to have available per partition
-            config.setMaxConnectionsPerPartition(MAX_CONNECTIONS_PER_PARTITION);    //the maximum number of connections to have available per partition
-            config.setPartitionCount(PARTITION_COUNT);
-            config.setConnectionTimeoutInMs(CONNECTION_TIMEOUT);
-            config.setAcquireRetryAttempts(CONNECTION_RETRIES);
-
-            config.setLazyInit(true);   //No connections will be made before they are needed
-            connectionPool = new BoneCP(config); // setup the connection pool
-            logger.info("Connection Pool for " + connectionUrl + " is initialized");
-            logger.info("Total connections ==> " + connectionPool.getTotalCreatedConnections());
-        } catch (Exception e) {
-            logger.error(e.getMessage(), e);
+    /**
+     * Returns a snapshot of the state and metrics of every pool, primary first
+     * @return List&lt;ConnectionPoolStats&gt;
+     */
+    public List<ConnectionPoolStats> getAllStatistics() {
+        List<ConnectionPoolStats> statistics = new ArrayList<ConnectionPoolStats>(pools.size());
+        for (ConnectionPool pool : pools.values()) {
+            statistics.add(pool.getStatistics());
         }
+        return statistics;
     }
 
     /**
@@ -114,38 +165,100 @@ public enum ConnectionManager {
      * You don't need to call it every time when you get a connection from the Connection Pool
      */
     public void shutdownConnPool() {
-        try {
-            if (connectionPool != null) {
-                connectionPool.shutdown();
-                connectionPool = null;
-            }
-        } catch (Exception e) {
-            logger.error(e.getMessage(), e);
+        for (ConnectionPool pool : pools.values()) {
+            pool.shutdown();
         }
     }
 
     /**
-     * This will get a thread-safe connection from the BoneCP connection pool.
+     * This will get a thread-safe connection to the primary database from the BoneCP connection pool.
      * Synchronization of the method will be done inside BoneCP source
      * @return Connection
      */
     public Connection getConnection() throws DalException {
-        try {
-            if(connectionPool == null){
-                initConnectionPool();
+        return primary.getConnection();
+    }
+
+    /**
+     * Get a connection for reading or writing.  Reads go to the replica with the fewest connections in use, or to the
+     * primary database if there are no replicas or all of them are ejected.  Writes always go to the primary database.
+     * @param accessMode - READ or WRITE
+     * @return Connection
+     */
+    public Connection getConnection(AccessMode accessMode) throws DalException {
+        if (accessMode == AccessMode.READ) {
+            Connection conn = getReplicaConnection();
+            if (conn != null) {
+                return conn;
+            }
+        }
+        return primary.getConnection();
+    }
+
+    /**
+     * Get a connection from a named pool, without routing or ejection
+     * @param poolName - PRIMARY_POOL_NAME or the name of a replica
+     * @return Connection
+     */
+    public Connection getConnection(String poolName) throws DalException {
+        ConnectionPool pool = pools.get(poolName);
+        if (pool == null) {
+            throw new DalException("There is no connection pool named " + poolName);
+        }
+        return pool.getConnection();
+    }
+
+    /**
+     * Returns a connection from the least busy replica that is in rotation, ejecting replicas that fail, or null if
+     * no replica can hand out a connection.  Each replica is tried at most once.
+     */
+    private Connection getReplicaConnection() {
+        if (replicas.length == 0) {
+            return null;
+        }
+        boolean[] tried = new boolean[replicas.length];
+        int index;
+        while ((index = leastInUseReplica(tried)) >= 0) {
+            tried[index] = true;
+            ConnectionPool replica = replicas[index];
+            try {
+                return replica.getConnection();
+            } catch (PoolExhaustedException e) {
+                //the replica is healthy but busy, so it stays in rotation
+                logger.warn("Replica " + replica.getName() + " is exhausted, trying the next pool: " + e.getMessage());
+            } catch (DalException e) {
+                eject(replica, e);
+            }
+        }
+        return null;
+    }
+
+    private void eject(ConnectionPool replica, DalException cause) {
+        long ejectionTime = PropertyManager.INSTANCE.getLongProperty(PROP_DB_REPLICA_EJECTION_TIME, REPLICA_EJECTION_TIME);
+        replica.eject(ejectionTime);
+        logger.warn("Ejecting replica " + replica.getName() + " for " + ejectionTime + " ms: " + cause.getMessage());
+    }
+
+    /**
+     * Returns the index of the replica in rotation with the fewest connections in use, or -1 if all replicas are
+     * ejected or tried.  The scan starts at a different replica each time so that ties are spread evenly.
+     */
+    private int leastInUseReplica(boolean[] tried) {
+        int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+        int best = -1;
+        int bestInUse = Integer.MAX_VALUE;
+        for (int i = 0; i < replicas.length; i++) {
+            int index = (start + i) % replicas.length;
+            ConnectionPool replica = replicas[index];
+            if (tried[index] || replica.isEjected()) {
+                continue;
+            }
+            int inUse = replica.getConnectionsInUse();
+            if (inUse < bestInUse) {
+                best = index;
+                bestInUse = inUse;
             }
-            logger.info("Attempting to get connection to: " + connectionPool.getConfig().getJdbcUrl());
-            Connection conn = connectionPool.getConnection();
-            logger.info("Total created connections in pool ==> " + connectionPool.getTotalCreatedConnections());
-            logger.info("Total free connections in pool ==> " + connectionPool.getTotalFree());
-            return conn;
-        } catch (SQLException e) {
-            logger.error("Unable to get a connection to: " + connectionPool.getConfig().getJdbcUrl());
-            logger.error("SQLException: " + e.getMessage());
-            logger.error("SQLState: " + e.getSQLState());
-            logger.error("ErrorCode: " + e.getErrorCode());
-            logger.error(e.getMessage(), e);
-            throw new DalException("SQLException encountered in ConnectionManager: " + e.getMessage(), e);
         }
+        return best;
     }
-}
\ No newline at end of file
+}
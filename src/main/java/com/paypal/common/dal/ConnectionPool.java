@@ -0,0 +1,581 @@
+package com.paypal.common.dal;
+
+import com.jolbox.bonecp.BoneCP;
+import com.jolbox.bonecp.BoneCPConfig;
+import com.paypal.common.exceptions.ConfigException;
+import com.paypal.common.exceptions.DalException;
+import com.paypal.common.exceptions.PoolExhaustedException;
+import com.paypal.common.utils.PropertyManager;
+import org.apache.log4j.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named BoneCP connection pool configured from PropertyManager.
+ * Each property is read with the pool's prefix first, e.g. replica1.dbConnectionUrl, and falls back to the
+ * unprefixed property, so pools only need to declare what differs from the primary database.
+ * <p/>
+ * The pool opens connections lazily.  Call warmUp at startup to open and validate the minimum number of connections
+ * up front, so that the first requests do not pay for creating them.
+ * <p/>
+ * Pool telemetry is available from getStatistics and over JMX as com.paypal.common.dal:type=ConnectionPool,name=&lt;name&gt;,
+ * with the name quoted only if it contains characters that are not allowed in an unquoted ObjectName value.
+ */
+public class ConnectionPool implements ConnectionPoolMXBean {
+    private static Logger logger = Logger.getLogger(ConnectionPool.class);
+    private static final int MIN_CONNECTIONS_PER_PARTITION = 1;
+    private static final int MIN_TOTAL_CONNECTIONS = 10;
+    private static final int MAX_PARTITION_COUNT = 8;
+    private static final long CONNECTION_TIMEOUT = 5000;
+    private static final int CONNECTION_RETRIES = 3;
+    private static final long ACQUIRE_RETRY_DELAY = 1000;
+    private static final long WARMUP_TIMEOUT = 30000;
+    private final String name;
+    private final String propertyPrefix;
+    private volatile BoneCP connectionPool = null;
+    private int partitionCount;
+    private int minConnectionsPerPartition;
+    private int maxConnectionsPerPartition;
+    private long connectionTimeoutNanos;
+    private final ConnectionPoolMetrics metrics = new ConnectionPoolMetrics();
+    private ObjectName objectName = null;
+    private volatile long ejectedUntil = 0;
+    private final AtomicLong ejectionCount = new AtomicLong();
+    private volatile long warmupTimeInMs = -1;
+
+    /**
+     * Constructor - the pool is initialized by init or on first use
+     *
+     * @param name           - the name of the pool
+     * @param propertyPrefix - prefix of the pool's properties, e.g. "replica1.", or an empty string to use the unprefixed properties
+     */
+    ConnectionPool(String name, String propertyPrefix) {
+        this.name = name;
+        this.propertyPrefix = propertyPrefix;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the value of the pool's prefixed property, or of the unprefixed property if the pool does not set it
+     */
+    private String getProperty(String propertyName) {
+        String value = null;
+        if (!propertyPrefix.isEmpty()) {
+            value = PropertyManager.INSTANCE.getProperty(propertyPrefix + propertyName);
+        }
+        return value == null || value.isEmpty() ? PropertyManager.INSTANCE.getProperty(propertyName) : value;
+    }
+
+    private int getIntProperty(String propertyName, int defaultValue) {
+        if (!propertyPrefix.isEmpty() && PropertyManager.INSTANCE.getProperty(propertyPrefix + propertyName) != null) {
+            return PropertyManager.INSTANCE.getIntProperty(propertyPrefix + propertyName, defaultValue);
+        }
+        return PropertyManager.INSTANCE.getIntProperty(propertyName, defaultValue);
+    }
+
+    private long getLongProperty(String propertyName, long defaultValue) {
+        if (!propertyPrefix.isEmpty() && PropertyManager.INSTANCE.getProperty(propertyPrefix + propertyName) != null) {
+            return PropertyManager.INSTANCE.getLongProperty(propertyPrefix + propertyName, defaultValue);
+        }
+        return PropertyManager.INSTANCE.getLongProperty(propertyName, defaultValue);
+    }
+
+    /**
+     * Implementations must provide the required parameters to configure the connection pool
+     * Some implementations may have these configured in properties files.  Others may choose to pass it in via another mode.
+     */
+    synchronized void init() {
+        if (connectionPool != null) {
+            return;
+        }
+        try {
+            ArrayList<String> missingProperties = new ArrayList<String>();
+
+            String dbDriver = getProperty(ConnectionManager.PROP_DB_DRIVER);
+            if(dbDriver == null || dbDriver.isEmpty())
+            {
+                missingProperties.add(propertyPrefix + ConnectionManager.PROP_DB_DRIVER);
+            }
+
+            String connectionUrl = getProperty(ConnectionManager.PROP_DB_CONNECTION_URL);
+            if(connectionUrl == null || connectionUrl.isEmpty())
+            {
+                missingProperties.add(propertyPrefix + ConnectionManager.PROP_DB_CONNECTION_URL);
+            }
+
+            String dbUser = getProperty(ConnectionManager.PROP_DB_USERNAME);
+            if(dbUser == null || dbUser.isEmpty())
+            {
+                missingProperties.add(propertyPrefix + ConnectionManager.PROP_DB_USERNAME);
+            }
+
+            String dbPassword = getProperty(ConnectionManager.PROP_DB_PASSWORD);
+            if(dbPassword == null || dbPassword.isEmpty())
+            {
+                missingProperties.add(propertyPrefix + ConnectionManager.PROP_DB_PASSWORD);
+            }
+
+            if(!missingProperties.isEmpty()){
+                String msg = "The following database properties are missing from the application properties file: " + missingProperties;
+                logger.error(msg);
+                throw new ConfigException(msg);
+            }
+
+            try {
+                // Try to load the driver.  If it does not exist on the classpath, throw an exception right away
+                Class.forName(dbDriver);
+            } catch (ClassNotFoundException e) {
+                logger.error(e);
+                throw e;
+            }
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            partitionCount = Math.max(1, getIntProperty(ConnectionManager.PROP_DB_PARTITION_COUNT, defaultPartitionCount(cores)));
+            maxConnectionsPerPartition = Math.max(1, getIntProperty(ConnectionManager.PROP_DB_MAX_CONNECTIONS_PER_PARTITION,
+                    defaultMaxConnectionsPerPartition(cores, partitionCount)));
+            minConnectionsPerPartition = Math.min(maxConnectionsPerPartition,
+                    Math.max(0, getIntProperty(ConnectionManager.PROP_DB_MIN_CONNECTIONS_PER_PARTITION, MIN_CONNECTIONS_PER_PARTITION)));
+
+            logger.info("Attempting to configure connection pool " + name + " for url: " + connectionUrl);
+            BoneCPConfig config = new BoneCPConfig();
+            config.setJdbcUrl(connectionUrl);
+            config.setUsername(dbUser);
+            config.setPassword(dbPassword);
+            config.setMinConnectionsPerPartition(minConnectionsPerPartition);    //the minimum number on connections to have available per partition
+            config.setMaxConnectionsPerPartition(maxConnectionsPerPartition);    //the maximum number of connections to have available per partition
+            config.setPartitionCount(partitionCount);   //threads are spread across partitions, so more partitions means less contention
+            long connectionTimeout = getLongProperty(ConnectionManager.PROP_DB_CONNECTION_TIMEOUT, CONNECTION_TIMEOUT);
+            connectionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectionTimeout);
+            config.setConnectionTimeoutInMs(connectionTimeout);
+            config.setAcquireRetryAttempts(getIntProperty(ConnectionManager.PROP_DB_CONNECTION_RETRIES, CONNECTION_RETRIES));
+            config.setAcquireRetryDelayInMs(getLongProperty(ConnectionManager.PROP_DB_ACQUIRE_RETRY_DELAY, ACQUIRE_RETRY_DELAY));
+            logger.info("Connection pool " + name + " geometry: " + partitionCount + " partition(s) of " + minConnectionsPerPartition
+                    + " to " + maxConnectionsPerPartition + " connections");
+
+            config.setLazyInit(true);   //No connections will be made before they are needed
+            config.setPoolName(name);
+            config.setConnectionHook(metrics);  //records hold times and failed attempts to open connections
+            connectionPool = new BoneCP(config); // setup the connection pool
+            logger.info("Connection Pool " + name + " for " + connectionUrl + " is initialized");
+            registerMBean();
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Open the minimum number of connections of the pool in parallel and validate each of them, then return them to
+     * the pool.  Connections are validated with the dbValidationQuery property, e.g. "SELECT 1 FROM DUAL", or with
+     * Connection.isValid if it is not set.
+     *
+     * @return long - the time it took for the pool to be ready, in milliseconds
+     * @throws DalException if the pool cannot be initialized, or a connection cannot be opened or validated within
+     *                      dbWarmupTimeoutInMs, e.g. because the database is unreachable
+     */
+    public long warmUp() throws DalException {
+        long start = System.nanoTime();
+        if (connectionPool == null) {
+            init();
+            if (connectionPool == null) {
+                throw new DalException("Connection pool " + name + " could not be initialized");
+            }
+        }
+        final String validationQuery = getProperty(ConnectionManager.PROP_DB_VALIDATION_QUERY);
+        long timeoutInMs = getLongProperty(ConnectionManager.PROP_DB_WARMUP_TIMEOUT, WARMUP_TIMEOUT);
+        final int validationTimeout = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeoutInMs));
+        final int connectionCount = Math.max(1, partitionCount * minConnectionsPerPartition);
+        //the connections opened so far; once the warmup has returned them, tasks that finish late close their own
+        final List<Connection> opened = new ArrayList<Connection>(connectionCount);
+        final boolean[] abandoned = {false};
+        ExecutorService executor = Executors.newFixedThreadPool(connectionCount, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-warmup-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final BoneCP pool = connectionPool;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(connectionCount);
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        //straight from BoneCP, so that the warmup does not show in the acquire and hold time metrics
+                        metrics.setTracked(false);
+                        Connection conn = pool.getConnection();
+                        try {
+                            validate(conn, validationQuery, validationTimeout);
+                            synchronized (opened) {
+                                if (!abandoned[0]) {
+                                    opened.add(conn);
+                                    return null;
+                                }
+                            }
+                        } catch (SQLException e) {
+                            conn.close();
+                            throw e;
+                        }
+                        conn.close();
+                        return null;
+                    }
+                }));
+            }
+            //every connection is held until all are open, so that each task opens a distinct connection
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+            for (Future<Void> future : futures) {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (ExecutionException e) {
+            throw new DalException("Warmup of connection pool " + name + " failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new DalException("Warmup of connection pool " + name + " did not open " + connectionCount
+                    + " connections within " + timeoutInMs + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DalException("Interrupted during warmup of connection pool " + name, e);
+        } finally {
+            List<Connection> connections;
+            synchronized (opened) {
+                abandoned[0] = true;
+                connections = new ArrayList<Connection>(opened);
+            }
+            executor.shutdownNow();
+            metrics.setTracked(false);
+            try {
+                for (Connection conn : connections) {
+                    try {
+                        conn.close();
+                    } catch (SQLException e) {
+                        logger.warn("Unable to return a warmed up connection to pool " + name + ": " + e.getMessage());
+                    }
+                }
+            } finally {
+                metrics.setTracked(true);
+            }
+        }
+        warmupTimeInMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("Connection pool " + name + " is ready: " + connectionCount + " connection(s) opened and validated in "
+                + warmupTimeInMs + " ms");
+        return warmupTimeInMs;
+    }
+
+    private static void validate(Connection conn, String validationQuery, int timeoutInSeconds) throws SQLException {
+        if (validationQuery == null || validationQuery.isEmpty()) {
+            if (!conn.isValid(timeoutInSeconds)) {
+                throw new SQLException("Connection is not valid");
+            }
+            return;
+        }
+        PreparedStatement statement = conn.prepareStatement(validationQuery);
+        try {
+            statement.setQueryTimeout(timeoutInSeconds);
+            statement.executeQuery().close();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Register this pool with the platform MBean server.  Failing to register is logged and otherwise ignored.
+     */
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName mbeanName = getObjectName(name);
+            if (server.isRegistered(mbeanName)) {
+                //another pool instance owns the name, so this one must not unregister it on shutdown
+                logger.warn("MBean " + mbeanName + " is already registered, connection pool " + name + " is not registered");
+                return;
+            }
+            server.registerMBean(this, mbeanName);
+            objectName = mbeanName;
+        } catch (InstanceAlreadyExistsException e) {
+            logger.warn("MBean for connection pool " + name + " is already registered");
+        } catch (Exception e) {
+            logger.warn("Unable to register MBean for connection pool " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the JMX name of a pool.  The pool name is used as is when it is a valid ObjectName value, so that the
+     * primary pool keeps the name it was registered under before replicas were supported, and quoted otherwise.
+     */
+    static ObjectName getObjectName(String poolName) throws MalformedObjectNameException {
+        String domainAndType = "com.paypal.common.dal:type=ConnectionPool,name=";
+        try {
+            ObjectName mbeanName = new ObjectName(domainAndType + poolName);
+            if (!mbeanName.isPattern() && mbeanName.getKeyPropertyList().size() == 2 && poolName.equals(mbeanName.getKeyProperty("name"))) {
+                return mbeanName;
+            }
+        } catch (MalformedObjectNameException e) {
+            //quoted below
+        }
+        return new ObjectName(domainAndType + ObjectName.quote(poolName));
+    }
+
+    /**
+     * One partition per core, up to MAX_PARTITION_COUNT
+     */
+    static int defaultPartitionCount(int cores) {
+        return Math.max(1, Math.min(cores, MAX_PARTITION_COUNT));
+    }
+
+    /**
+     * Enough connections per partition for two per core in total, and never fewer than MIN_TOTAL_CONNECTIONS in total
+     */
+    static int defaultMaxConnectionsPerPartition(int cores, int partitionCount) {
+        int totalConnections = Math.max(MIN_TOTAL_CONNECTIONS, 2 * cores);
+        return (totalConnections + partitionCount - 1) / partitionCount;
+    }
+
+    /**
+     * Take the pool out of rotation for read routing until the given time has passed
+     *
+     * @param ejectionTimeInMs - how long the pool stays out of rotation
+     */
+    void eject(long ejectionTimeInMs) {
+        ejectedUntil = System.currentTimeMillis() + ejectionTimeInMs;
+        ejectionCount.incrementAndGet();
+    }
+
+    /**
+     * Returns whether or not the pool is out of rotation for read routing because it recently failed
+     * @return boolean
+     */
+    @Override
+    public boolean isEjected() {
+        return System.currentTimeMillis() < ejectedUntil;
+    }
+
+    /**
+     * Returns the number of times the pool has been taken out of rotation
+     * @return long
+     */
+    @Override
+    public long getEjectionCount() {
+        return ejectionCount.get();
+    }
+
+    /**
+     * Returns how long the last warmUp took, in milliseconds, or -1 if the pool has not been warmed up
+     * @return long
+     */
+    @Override
+    public long getWarmupTimeInMs() {
+        return warmupTimeInMs;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public int getMinConnectionsPerPartition() {
+        return minConnectionsPerPartition;
+    }
+
+    public int getMaxConnectionsPerPartition() {
+        return maxConnectionsPerPartition;
+    }
+
+    /**
+     * Returns the maximum number of connections the pool can hold across all partitions
+     * @return int
+     */
+    @Override
+    public int getMaxTotalConnections() {
+        return partitionCount * maxConnectionsPerPartition;
+    }
+
+    /**
+     * Returns a snapshot of the state and metrics of the pool
+     * @return ConnectionPoolStats
+     */
+    @Override
+    public ConnectionPoolStats getStatistics() {
+        return metrics.snapshot(name, connectionPool, getMaxTotalConnections());
+    }
+
+    @Override
+    public int getConnectionsInUse() {
+        BoneCP pool = connectionPool;
+        return pool == null ? 0 : pool.getTotalLeased();
+    }
+
+    @Override
+    public int getConnectionsFree() {
+        BoneCP pool = connectionPool;
+        return pool == null ? 0 : pool.getTotalFree();
+    }
+
+    @Override
+    public int getTotalCreatedConnections() {
+        BoneCP pool = connectionPool;
+        return pool == null ? 0 : pool.getTotalCreatedConnections();
+    }
+
+    /**
+     * Returns the highest number of connections seen in use at once.  A peak well below getMaxTotalConnections
+     * means the pool is larger than needed.
+     * @return int
+     */
+    @Override
+    public int getPeakConnectionsInUse() {
+        return metrics.getPeakLeasedConnections();
+    }
+
+    /**
+     * Returns the number of calls to getConnection
+     * @return long
+     */
+    @Override
+    public long getAcquireCount() {
+        return metrics.getAcquireCount();
+    }
+
+    /**
+     * Returns the number of calls to getConnection made while every connection the pool can hold was in use,
+     * i.e. that had to wait for a connection to be returned.  A count that keeps growing means the pool is too small.
+     * @return long
+     */
+    @Override
+    public long getSaturatedAcquireCount() {
+        return metrics.getSaturatedAcquireCount();
+    }
+
+    /**
+     * Returns the number of calls to getConnection that failed, e.g. because no connection became available in time
+     * @return long
+     */
+    @Override
+    public long getFailedAcquireCount() {
+        return metrics.getFailedAcquireCount();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return metrics.getTimeoutCount();
+    }
+
+    @Override
+    public long getAcquireRetryCount() {
+        return metrics.getAcquireRetryCount();
+    }
+
+    @Override
+    public long getAcquireWaitP50Micros() {
+        return metrics.getAcquireWait().getPercentile(50, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getAcquireWaitP99Micros() {
+        return metrics.getAcquireWait().getPercentile(99, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getAcquireWaitMaxMicros() {
+        return metrics.getAcquireWait().getMax(TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getHoldTimeP50Micros() {
+        return metrics.getHoldTime().getPercentile(50, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getHoldTimeP99Micros() {
+        return metrics.getHoldTime().getPercentile(99, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getHoldTimeMaxMicros() {
+        return metrics.getHoldTime().getMax(TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public void resetStatistics() {
+        metrics.reset();
+    }
+
+    /**
+     * Shut down the pool and close its connections.  The pool is initialized again if it is used afterwards.
+     */
+    synchronized void shutdown() {
+        try {
+            if (connectionPool != null) {
+                connectionPool.shutdown();
+                connectionPool = null;
+            }
+            if (objectName != null) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                objectName = null;
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * This will get a thread-safe connection from the BoneCP connection pool.
+     * Synchronization of the method will be done inside BoneCP source
+     * @return Connection
+     * @throws PoolExhaustedException if every connection of the pool was in use until the connection timeout passed
+     * @throws DalException if the pool cannot be initialized or does not hand out a connection for another reason,
+     *                      e.g. because the database is unreachable
+     */
+    public Connection getConnection() throws DalException {
+        BoneCP pool = connectionPool;
+        if (pool == null) {
+            init();
+            pool = connectionPool;
+            if (pool == null) {
+                throw new DalException("Connection pool " + name + " could not be initialized");
+            }
+        }
+        long start = 0;
+        boolean saturated = false;
+        try {
+            saturated = pool.getTotalLeased() >= getMaxTotalConnections();
+            start = System.nanoTime();
+            Connection conn = pool.getConnection();
+            metrics.recordAcquire(System.nanoTime() - start, saturated, pool.getTotalLeased());
+            return conn;
+        } catch (SQLException e) {
+            metrics.recordAcquireFailure(System.nanoTime() - start, connectionTimeoutNanos);
+            logger.error("Unable to get a connection to: " + pool.getConfig().getJdbcUrl());
+            logger.error("SQLException: " + e.getMessage());
+            logger.error("SQLState: " + e.getSQLState());
+            logger.error("ErrorCode: " + e.getErrorCode());
+            logger.error(e.getMessage(), e);
+            if (saturated || pool.getTotalLeased() >= getMaxTotalConnections()) {
+                throw new PoolExhaustedException("Connection pool " + name + " is exhausted: " + e.getMessage(), e);
+            }
+            throw new DalException("SQLException encountered in connection pool " + name + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.paypal.common.dal;
+
+/**
+ * JMX view of a connection pool.  Latencies are in microseconds.
+ * Registered under com.paypal.common.dal:type=ConnectionPool,name=&lt;pool name&gt;
+ */
+public interface ConnectionPoolMXBean {
+
+    /**
+     * Returns a snapshot of all of the attributes below, taken at once
+     * @return ConnectionPoolStats
+     */
+    ConnectionPoolStats getStatistics();
+
+    int getConnectionsInUse();
+
+    int getConnectionsFree();
+
+    int getTotalCreatedConnections();
+
+    int getMaxTotalConnections();
+
+    int getPeakConnectionsInUse();
+
+    long getAcquireCount();
+
+    long getSaturatedAcquireCount();
+
+    long getFailedAcquireCount();
+
+    long getTimeoutCount();
+
+    long getAcquireRetryCount();
+
+    long getAcquireWaitP50Micros();
+
+    long getAcquireWaitP99Micros();
+
+    long getAcquireWaitMaxMicros();
+
+    long getHoldTimeP50Micros();
+
+    long getHoldTimeP99Micros();
+
+    long getHoldTimeMaxMicros();
+
+    /**
+     * Returns whether or not the pool is out of rotation for read routing because it recently failed
+     */
+    boolean isEjected();
+
+    long getEjectionCount();
+
+    /**
+     * Returns how long the last warmup took, in milliseconds, or -1 if the pool has not been warmed up
+     */
+    long getWarmupTimeInMs();
+
+    /**
+     * Clear the counters and latency histograms
+     */
+    void resetStatistics();
+}
@@ -0,0 +1,175 @@
+package com.paypal.common.dal;
+
+import com.jolbox.bonecp.BoneCP;
+import com.jolbox.bonecp.ConnectionHandle;
+import com.jolbox.bonecp.hooks.AbstractConnectionHook;
+import com.jolbox.bonecp.hooks.AcquireFailConfig;
+import com.paypal.common.utils.LatencyHistogram;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of a connection pool.
+ * Installed as the BoneCP connection hook so that it sees connections being checked out, checked in and failing
+ * to be created.  Recording never allocates once every physical connection has been checked out once.
+ */
+class ConnectionPoolMetrics extends AbstractConnectionHook {
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong saturatedAcquireCount = new AtomicLong();
+    private final AtomicLong failedAcquireCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong acquireRetryCount = new AtomicLong();
+    private final AtomicInteger peakLeasedConnections = new AtomicInteger();
+    private final LatencyHistogram acquireWait = new LatencyHistogram();
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+    //checkout time of each physical connection, or 0 if it is not tracked; the entry is reused every time the
+    //connection is checked out
+    private final ConcurrentMap<ConnectionHandle, AtomicLong> checkoutTimes = new ConcurrentHashMap<ConnectionHandle, AtomicLong>();
+    //set on the threads of a warmup, whose connections are left out of the hold times
+    private final ThreadLocal<Boolean> untracked = new ThreadLocal<Boolean>();
+
+    /**
+     * Record a connection handed out by the pool
+     *
+     * @param waitNanos - the time getConnection took
+     * @param saturated - whether every connection the pool can hold was in use when it was requested
+     * @param leased    - the number of connections in use after it was handed out
+     */
+    void recordAcquire(long waitNanos, boolean saturated, int leased) {
+        acquireCount.incrementAndGet();
+        if (saturated) {
+            saturatedAcquireCount.incrementAndGet();
+        }
+        acquireWait.record(waitNanos);
+        int peak = peakLeasedConnections.get();
+        while (leased > peak && !peakLeasedConnections.compareAndSet(peak, leased)) {
+            peak = peakLeasedConnections.get();
+        }
+    }
+
+    /**
+     * Record a failed call to getConnection
+     *
+     * @param waitNanos    - the time getConnection took
+     * @param timeoutNanos - the configured connection timeout; a call that took at least this long timed out
+     */
+    void recordAcquireFailure(long waitNanos, long timeoutNanos) {
+        acquireCount.incrementAndGet();
+        failedAcquireCount.incrementAndGet();
+        acquireWait.record(waitNanos);
+        if (timeoutNanos > 0 && waitNanos >= timeoutNanos) {
+            timeoutCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onCheckOut(ConnectionHandle connection) {
+        AtomicLong checkoutTime = checkoutTimes.get(connection);
+        if (checkoutTime == null) {
+            AtomicLong created = new AtomicLong();
+            checkoutTime = checkoutTimes.putIfAbsent(connection, created);
+            if (checkoutTime == null) {
+                checkoutTime = created;
+            }
+        }
+        checkoutTime.set(untracked.get() == null ? System.nanoTime() : 0);
+    }
+
+    @Override
+    public void onCheckIn(ConnectionHandle connection) {
+        AtomicLong checkoutTime = checkoutTimes.get(connection);
+        if (checkoutTime != null && checkoutTime.get() != 0 && untracked.get() == null) {
+            holdTime.record(System.nanoTime() - checkoutTime.get());
+        }
+    }
+
+    /**
+     * Leave the connections checked out and in by the current thread out of the hold times, or stop doing so
+     *
+     * @param tracked - false to leave them out
+     */
+    void setTracked(boolean tracked) {
+        if (tracked) {
+            untracked.remove();
+        }
+        else {
+            untracked.set(Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void onDestroy(ConnectionHandle connection) {
+        checkoutTimes.remove(connection);
+    }
+
+    @Override
+    public boolean onAcquireFail(Throwable t, AcquireFailConfig acquireConfig) {
+        acquireRetryCount.incrementAndGet();
+        return super.onAcquireFail(t, acquireConfig);
+    }
+
+    long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    long getSaturatedAcquireCount() {
+        return saturatedAcquireCount.get();
+    }
+
+    long getFailedAcquireCount() {
+        return failedAcquireCount.get();
+    }
+
+    long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    long getAcquireRetryCount() {
+        return acquireRetryCount.get();
+    }
+
+    int getPeakLeasedConnections() {
+        return peakLeasedConnections.get();
+    }
+
+    LatencyHistogram getAcquireWait() {
+        return acquireWait;
+    }
+
+    LatencyHistogram getHoldTime() {
+        return holdTime;
+    }
+
+    /**
+     * Take a snapshot of the metrics and of the current state of the pool
+     *
+     * @param name                - the name of the pool
+     * @param pool                - the pool, or null if it is not initialized
+     * @param maxTotalConnections - the maximum number of connections the pool can hold
+     * @return ConnectionPoolStats
+     */
+    ConnectionPoolStats snapshot(String name, BoneCP pool, int maxTotalConnections) {
+        return new ConnectionPoolStats(name,
+                pool == null ? 0 : pool.getTotalLeased(),
+                pool == null ? 0 : pool.getTotalFree(),
+                pool == null ? 0 : pool.getTotalCreatedConnections(),
+                maxTotalConnections, this);
+    }
+
+    /**
+     * Clear all counters and histograms
+     */
+    void reset() {
+        acquireCount.set(0);
+        saturatedAcquireCount.set(0);
+        failedAcquireCount.set(0);
+        timeoutCount.set(0);
+        acquireRetryCount.set(0);
+        peakLeasedConnections.set(0);
+        acquireWait.reset();
+        holdTime.reset();
+    }
+}
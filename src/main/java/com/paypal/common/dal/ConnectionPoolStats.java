@@ -0,0 +1,178 @@
+package com.paypal.common.dal;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time snapshot of the state and metrics of a connection pool.
+ * Latencies are in microseconds.  Counts are cumulative since the pool was created or its statistics were reset.
+ */
+public class ConnectionPoolStats {
+    private final String name;
+    private final int connectionsInUse;
+    private final int connectionsFree;
+    private final int totalCreatedConnections;
+    private final int maxTotalConnections;
+    private final int peakConnectionsInUse;
+    private final long acquireCount;
+    private final long saturatedAcquireCount;
+    private final long failedAcquireCount;
+    private final long timeoutCount;
+    private final long acquireRetryCount;
+    private final long acquireWaitP50Micros;
+    private final long acquireWaitP99Micros;
+    private final long acquireWaitMaxMicros;
+    private final long holdTimeP50Micros;
+    private final long holdTimeP99Micros;
+    private final long holdTimeMaxMicros;
+
+    ConnectionPoolStats(String name, int connectionsInUse, int connectionsFree, int totalCreatedConnections,
+                        int maxTotalConnections, ConnectionPoolMetrics metrics) {
+        TimeUnit unit = TimeUnit.MICROSECONDS;
+        this.name = name;
+        this.connectionsInUse = connectionsInUse;
+        this.connectionsFree = connectionsFree;
+        this.totalCreatedConnections = totalCreatedConnections;
+        this.maxTotalConnections = maxTotalConnections;
+        this.peakConnectionsInUse = metrics.getPeakLeasedConnections();
+        this.acquireCount = metrics.getAcquireCount();
+        this.saturatedAcquireCount = metrics.getSaturatedAcquireCount();
+        this.failedAcquireCount = metrics.getFailedAcquireCount();
+        this.timeoutCount = metrics.getTimeoutCount();
+        this.acquireRetryCount = metrics.getAcquireRetryCount();
+        this.acquireWaitP50Micros = metrics.getAcquireWait().getPercentile(50, unit);
+        this.acquireWaitP99Micros = metrics.getAcquireWait().getPercentile(99, unit);
+        this.acquireWaitMaxMicros = metrics.getAcquireWait().getMax(unit);
+        this.holdTimeP50Micros = metrics.getHoldTime().getPercentile(50, unit);
+        this.holdTimeP99Micros = metrics.getHoldTime().getPercentile(99, unit);
+        this.holdTimeMaxMicros = metrics.getHoldTime().getMax(unit);
+    }
+
+    /**
+     * Constructor used by JMX to rebuild a snapshot from its attributes
+     */
+    @ConstructorProperties({"name", "connectionsInUse", "connectionsFree", "totalCreatedConnections", "maxTotalConnections",
+            "peakConnectionsInUse", "acquireCount", "saturatedAcquireCount", "failedAcquireCount", "timeoutCount",
+            "acquireRetryCount", "acquireWaitP50Micros", "acquireWaitP99Micros", "acquireWaitMaxMicros",
+            "holdTimeP50Micros", "holdTimeP99Micros", "holdTimeMaxMicros"})
+    public ConnectionPoolStats(String name, int connectionsInUse, int connectionsFree, int totalCreatedConnections,
+                               int maxTotalConnections, int peakConnectionsInUse, long acquireCount,
+                               long saturatedAcquireCount, long failedAcquireCount, long timeoutCount,
+                               long acquireRetryCount, long acquireWaitP50Micros, long acquireWaitP99Micros,
+                               long acquireWaitMaxMicros, long holdTimeP50Micros, long holdTimeP99Micros,
+                               long holdTimeMaxMicros) {
+        this.name = name;
+        this.connectionsInUse = connectionsInUse;
+        this.connectionsFree = connectionsFree;
+        this.totalCreatedConnections = totalCreatedConnections;
+        this.maxTotalConnections = maxTotalConnections;
+        this.peakConnectionsInUse = peakConnectionsInUse;
+        this.acquireCount = acquireCount;
+        this.saturatedAcquireCount = saturatedAcquireCount;
+        this.failedAcquireCount = failedAcquireCount;
+        this.timeoutCount = timeoutCount;
+        this.acquireRetryCount = acquireRetryCount;
+        this.acquireWaitP50Micros = acquireWaitP50Micros;
+        this.acquireWaitP99Micros = acquireWaitP99Micros;
+        this.acquireWaitMaxMicros = acquireWaitMaxMicros;
+        this.holdTimeP50Micros = holdTimeP50Micros;
+        this.holdTimeP99Micros = holdTimeP99Micros;
+        this.holdTimeMaxMicros = holdTimeMaxMicros;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getConnectionsInUse() {
+        return connectionsInUse;
+    }
+
+    public int getConnectionsFree() {
+        return connectionsFree;
+    }
+
+    public int getTotalCreatedConnections() {
+        return totalCreatedConnections;
+    }
+
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    public int getPeakConnectionsInUse() {
+        return peakConnectionsInUse;
+    }
+
+    public long getAcquireCount() {
+        return acquireCount;
+    }
+
+    /**
+     * Returns the number of acquires made while every connection the pool can hold was in use
+     * @return long
+     */
+    public long getSaturatedAcquireCount() {
+        return saturatedAcquireCount;
+    }
+
+    public long getFailedAcquireCount() {
+        return failedAcquireCount;
+    }
+
+    /**
+     * Returns the number of acquires that failed after waiting at least the connection timeout
+     * @return long
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * Returns the number of failed attempts to open a physical connection that BoneCP retried or gave up on
+     * @return long
+     */
+    public long getAcquireRetryCount() {
+        return acquireRetryCount;
+    }
+
+    public long getAcquireWaitP50Micros() {
+        return acquireWaitP50Micros;
+    }
+
+    public long getAcquireWaitP99Micros() {
+        return acquireWaitP99Micros;
+    }
+
+    public long getAcquireWaitMaxMicros() {
+        return acquireWaitMaxMicros;
+    }
+
+    public long getHoldTimeP50Micros() {
+        return holdTimeP50Micros;
+    }
+
+    public long getHoldTimeP99Micros() {
+        return holdTimeP99Micros;
+    }
+
+    public long getHoldTimeMaxMicros() {
+        return holdTimeMaxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": inUse=" + connectionsInUse
+                + ", free=" + connectionsFree
+                + ", created=" + totalCreatedConnections
+                + ", max=" + maxTotalConnections
+                + ", peakInUse=" + peakConnectionsInUse
+                + ", acquires=" + acquireCount
+                + ", saturated=" + saturatedAcquireCount
+                + ", failed=" + failedAcquireCount
+                + ", timeouts=" + timeoutCount
+                + ", retries=" + acquireRetryCount
+                + ", acquireWaitUs[p50=" + acquireWaitP50Micros + ", p99=" + acquireWaitP99Micros + ", max=" + acquireWaitMaxMicros + "]"
+                + ", holdTimeUs[p50=" + holdTimeP50Micros + ", p99=" + holdTimeP99Micros + ", max=" + holdTimeMaxMicros + "]";
+    }
+}
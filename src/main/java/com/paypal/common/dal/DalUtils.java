@@ -0,0 +1,65 @@
+package com.paypal.common.dal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers shared by the JDBC classes of the dal package
+ */
+final class DalUtils {
+
+    private DalUtils() {
+    }
+
+    /**
+     * Bind parameters to the placeholders of a statement, in order.  Null values are bound as SQL NULL.
+     *
+     * @param statement  - the statement to bind
+     * @param parameters - the values of the placeholders
+     * @throws SQLException
+     */
+    static void bindParameters(PreparedStatement statement, Object... parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] == null) {
+                statement.setNull(i + 1, Types.NULL);
+            }
+            else {
+                statement.setObject(i + 1, parameters[i]);
+            }
+        }
+    }
+
+    /**
+     * Run a query and map all of its rows
+     *
+     * @param connection - the connection to run the query on; it is not closed
+     * @param sql        - a SELECT statement with ? placeholders
+     * @param rowMapper  - maps each row
+     * @param parameters - the values of the placeholders, in order
+     * @return List - the mapped rows
+     * @throws SQLException
+     */
+    static <T> List<T> queryForList(Connection connection, String sql, RowMapper<T> rowMapper, Object... parameters) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            bindParameters(statement, parameters);
+            ResultSet resultSet = statement.executeQuery();
+            try {
+                List<T> rows = new ArrayList<T>();
+                while (resultSet.next()) {
+                    rows.add(rowMapper.mapRow(resultSet, rows.size() + 1));
+                }
+                return rows;
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.paypal.common.dal;
+
+import com.paypal.common.exceptions.DalException;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Read-through cache of query results, for lookups that are repeated often and change rarely, e.g. configuration
+ * or currency tables.
+ * <p/>
+ * Results are keyed by SQL, parameter values and row mapper, and are read from the database on a miss.  Row mappers
+ * are compared with equals, i.e. by identity unless the mapper overrides it, so that two configurations of one mapper
+ * class never share results.  Pass the same mapper instance, e.g. a constant, for every call of a query: a mapper
+ * created per call never finds a cached result.
+ * Concurrent misses for the same key wait for a single load.  Cached lists are unmodifiable and shared by all
+ * callers, so mapped rows should be immutable.  Entries expire after their time to live, and the least recently
+ * used entries are evicted once the cache is full.  A failed load is not cached.
+ * <p/>
+ * After changing the data behind cached queries, call invalidate, invalidateQuery or invalidateTable so the next
+ * read goes to the database.
+ */
+public class QueryCache {
+    private static Logger logger = Logger.getLogger(QueryCache.class);
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE = 60000;
+    private final int maxEntries;
+    private final long defaultTimeToLiveInMs;
+    private final AccessMode accessMode;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final LinkedHashMap<Key, CachedResult> entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Constructor for a cache with DEFAULT_MAX_ENTRIES entries and DEFAULT_TIME_TO_LIVE that reads from a replica when one is available
+     */
+    public QueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE, AccessMode.READ);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries            - the maximum number of cached results
+     * @param defaultTimeToLiveInMs - how long results stay cached when a query does not specify it
+     * @param accessMode            - the mode connections are taken from ConnectionManager with
+     */
+    public QueryCache(int maxEntries, long defaultTimeToLiveInMs, AccessMode accessMode) {
+        this.maxEntries = maxEntries;
+        this.defaultTimeToLiveInMs = defaultTimeToLiveInMs;
+        this.accessMode = accessMode;
+    }
+
+    /**
+     * Returns the mapped rows of a query, from the cache if they were read within the default time to live
+     *
+     * @param sql        - a SELECT statement with ? placeholders
+     * @param rowMapper  - maps each row
+     * @param parameters - the values of the placeholders, in order
+     * @return List - unmodifiable list of the mapped rows
+     * @throws DalException if the rows are not cached and the query fails
+     */
+    public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... parameters) throws DalException {
+        return query(defaultTimeToLiveInMs, sql, rowMapper, parameters);
+    }
+
+    /**
+     * Returns the mapped rows of a query, from the cache if they were read within the given time to live
+     *
+     * @param timeToLiveInMs - how long the rows stay cached once read, or 0 for no limit
+     * @param sql            - a SELECT statement with ? placeholders
+     * @param rowMapper      - maps each row
+     * @param parameters     - the values of the placeholders, in order
+     * @return List - unmodifiable list of the mapped rows
+     * @throws DalException if the rows are not cached and the query fails
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> query(long timeToLiveInMs, final String sql, final RowMapper<T> rowMapper, final Object... parameters) throws DalException {
+        Key key = new Key(sql, parameters.clone(), rowMapper);
+        CachedResult entry;
+        boolean loader = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new CachedResult(new FutureTask<List<?>>(new Callable<List<?>>() {
+                    @Override
+                    public List<?> call() throws DalException {
+                        return load(sql, rowMapper, parameters);
+                    }
+                }), timeToLiveInMs);
+                entries.put(key, entry);
+                loader = true;
+            }
+        }
+        if (loader) {
+            misses.incrementAndGet();
+            entry.task.run();
+            entry.loadedAt = System.currentTimeMillis();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+        try {
+            return (List<T>) entry.task.get();
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                //only remove the failed entry, not one loaded since
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+            }
+            if (loader) {
+                loadFailures.incrementAndGet();
+            }
+            if (e.getCause() instanceof DalException) {
+                throw (DalException) e.getCause();
+            }
+            throw new DalException("Unable to load query " + sql + ": " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DalException("Interrupted while waiting for query " + sql + " to load", e);
+        }
+    }
+
+    private <T> List<?> load(String sql, RowMapper<T> rowMapper, Object... parameters) throws DalException {
+        try {
+            Connection connection = ConnectionManager.INSTANCE.getConnection(accessMode);
+            try {
+                return Collections.unmodifiableList(DalUtils.queryForList(connection, sql, rowMapper, parameters));
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            logger.error("SQLException encountered in QueryCache: " + e.getMessage(), e);
+            throw new DalException("SQLException encountered in QueryCache: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Remove the cached results of a query with the given parameter values
+     *
+     * @param sql        - the SELECT statement
+     * @param parameters - the values of the placeholders, in order
+     * @return int - the number of entries removed
+     */
+    public synchronized int invalidate(String sql, Object... parameters) {
+        int removed = 0;
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            Key key = iterator.next();
+            if (key.sql.equals(sql) && Arrays.deepEquals(key.parameters, parameters)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        invalidations.addAndGet(removed);
+        return removed;
+    }
+
+    /**
+     * Remove the cached results of a query for all parameter values
+     *
+     * @param sql - the SELECT statement
+     * @return int - the number of entries removed
+     */
+    public synchronized int invalidateQuery(String sql) {
+        int removed = 0;
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().sql.equals(sql)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        invalidations.addAndGet(removed);
+        return removed;
+    }
+
+    /**
+     * Remove the cached results of every query whose SQL mentions a table, e.g. after writing to that table
+     *
+     * @param tableName - the name of the table, matched as a whole word and ignoring case
+     * @return int - the number of entries removed
+     */
+    public synchronized int invalidateTable(String tableName) {
+        Pattern pattern = Pattern.compile("\\b" + Pattern.quote(tableName) + "\\b", Pattern.CASE_INSENSITIVE);
+        int removed = 0;
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (pattern.matcher(iterator.next().sql).find()) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        invalidations.addAndGet(removed);
+        return removed;
+    }
+
+    /**
+     * Remove every cached result
+     */
+    public synchronized void invalidateAll() {
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getDefaultTimeToLiveInMs() {
+        return defaultTimeToLiveInMs;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailures.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * Returns hits / (hits + misses), or 0 if the cache has not been used.  A caller that waited for another
+     * caller's load counts as a hit.
+     *
+     * @return double
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache: size=" + size()
+                + ", hits=" + hits.get()
+                + ", misses=" + misses.get()
+                + ", hitRate=" + Math.round(getHitRate() * 100) + "%"
+                + ", loadFailures=" + loadFailures.get()
+                + ", evictions=" + evictions.get()
+                + ", expirations=" + expirations.get()
+                + ", invalidations=" + invalidations.get();
+    }
+
+    /**
+     * Cache key: SQL, parameter values and row mapper class
+     */
+    private static final class Key {
+        private final String sql;
+        private final Object[] parameters;
+        private final RowMapper<?> rowMapper;
+        private final int hash;
+
+        Key(String sql, Object[] parameters, RowMapper<?> rowMapper) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.rowMapper = rowMapper;
+            this.hash = 31 * (31 * sql.hashCode() + Arrays.deepHashCode(parameters)) + rowMapper.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && rowMapper.equals(other.rowMapper) && sql.equals(other.sql)
+                    && Arrays.deepEquals(parameters, other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A result, loaded or being loaded.  Its time to live starts when the load completes.
+     */
+    private static final class CachedResult {
+        private final FutureTask<List<?>> task;
+        private final long timeToLiveInMs;
+        private volatile long loadedAt = 0;
+
+        CachedResult(FutureTask<List<?>> task, long timeToLiveInMs) {
+            this.task = task;
+            this.timeToLiveInMs = timeToLiveInMs;
+        }
+
+        boolean isExpired(long now) {
+            return loadedAt != 0 && timeToLiveInMs > 0 && now - loadedAt > timeToLiveInMs;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.paypal.common.dal;
+
+import com.paypal.common.exceptions.DalRuntimeException;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the mapped rows of a query, reading one row from the cursor at a time.
+ * The result set, statement and connection are closed as soon as the last row has been read, or when close is
+ * called, whichever comes first, so the iterator should be used in a try-with-resources block.
+ * Errors while reading rows are thrown as DalRuntimeException, after the iterator has been closed.
+ *
+ * @param <T> - the type rows are mapped to
+ */
+public class RowIterator<T> implements Iterator<T>, AutoCloseable {
+    private static Logger logger = Logger.getLogger(RowIterator.class);
+    private final Connection connection;
+    private final boolean autoCommit;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final RowMapper<T> rowMapper;
+    private int rowNumber = 0;
+    private boolean hasNextRow = false;
+    private boolean rowFetched = false;
+    private boolean closed = false;
+
+    /**
+     * @param connection - the connection the query runs on; closed with the iterator
+     * @param autoCommit - the auto-commit mode to restore on the connection before it is closed
+     * @param statement  - the executed statement
+     * @param resultSet  - the result of the query
+     * @param rowMapper  - maps each row
+     */
+    RowIterator(Connection connection, boolean autoCommit, PreparedStatement statement, ResultSet resultSet, RowMapper<T> rowMapper) {
+        this.connection = connection;
+        this.autoCommit = autoCommit;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.rowMapper = rowMapper;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!rowFetched) {
+            if (closed) {
+                return false;
+            }
+            try {
+                hasNextRow = resultSet.next();
+            } catch (SQLException e) {
+                close();
+                throw new DalRuntimeException("SQLException while reading row " + (rowNumber + 1) + ": " + e.getMessage(), e);
+            }
+            rowFetched = true;
+            if (!hasNextRow) {
+                close();
+            }
+        }
+        return hasNextRow;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        rowFetched = false;
+        try {
+            return rowMapper.mapRow(resultSet, ++rowNumber);
+        } catch (SQLException e) {
+            close();
+            throw new DalRuntimeException("SQLException while mapping row " + rowNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Rows cannot be removed");
+    }
+
+    /**
+     * Returns the number of rows read so far
+     * @return int
+     */
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * Close the result set and statement and return the connection to the pool.  Calling close more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        hasNextRow = false;
+        rowFetched = true;
+        close(resultSet, statement, connection, autoCommit);
+    }
+
+    /**
+     * Close the resources of a query, logging rather than throwing any error
+     */
+    static void close(ResultSet resultSet, PreparedStatement statement, Connection connection, boolean autoCommit) {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            logger.warn("Unable to close result set: " + e.getMessage());
+        }
+        try {
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            logger.warn("Unable to close statement: " + e.getMessage());
+        }
+        try {
+            //the query ran in a transaction so that the driver could use a cursor; nothing was written
+            connection.rollback();
+            if (autoCommit) {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.warn("Unable to end read transaction: " + e.getMessage());
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("Unable to close connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.paypal.common.dal;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a ResultSet to an object
+ *
+ * @param <T> - the type rows are mapped to
+ */
+public interface RowMapper<T> {
+
+    /**
+     * Map the current row.  Implementations must not move the cursor.
+     *
+     * @param resultSet - positioned on the row to map
+     * @param rowNumber - the number of the row, starting at 1
+     * @return T
+     * @throws SQLException
+     */
+    T mapRow(ResultSet resultSet, int rowNumber) throws SQLException;
+}
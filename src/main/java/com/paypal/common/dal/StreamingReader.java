@@ -0,0 +1,91 @@
+package com.paypal.common.dal;
+
+import com.paypal.common.exceptions.DalException;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Runs queries whose results are read one row at a time instead of being loaded into memory.
+ * Statements are forward-only and read-only with the configured fetch size, and run with auto-commit off, which
+ * drivers such as PostgreSQL's require to fetch rows from a cursor in chunks.  For MySQL Connector/J, use
+ * a fetch size of Integer.MIN_VALUE to stream rows.
+ * <p/>
+ * Memory use depends on the fetch size, not on the number of rows.  Rows are only read from the database as the
+ * caller iterates, so a slow consumer holds the cursor open rather than buffering rows.
+ * <pre>
+ * try (RowIterator&lt;Account&gt; accounts = reader.query("SELECT id, name FROM account WHERE region = ?", mapper, region)) {
+ *     while (accounts.hasNext()) {
+ *         process(accounts.next());
+ *     }
+ * }
+ * </pre>
+ */
+public class StreamingReader {
+    private static Logger logger = Logger.getLogger(StreamingReader.class);
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    private final AccessMode accessMode;
+    private final int fetchSize;
+
+    /**
+     * Constructor for a reader that reads from a replica when one is available, with the default fetch size
+     */
+    public StreamingReader() {
+        this(AccessMode.READ, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param accessMode - the mode connections are taken from ConnectionManager with
+     * @param fetchSize  - the number of rows the driver fetches per round trip
+     */
+    public StreamingReader(AccessMode accessMode, int fetchSize) {
+        this.accessMode = accessMode;
+        this.fetchSize = fetchSize;
+    }
+
+    public AccessMode getAccessMode() {
+        return accessMode;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Run a query and return an iterator over its mapped rows.  The iterator holds a connection until it has been
+     * read to the end or closed.
+     *
+     * @param sql        - a SELECT statement with ? placeholders
+     * @param rowMapper  - maps each row
+     * @param parameters - the values of the placeholders, in order
+     * @return RowIterator
+     * @throws DalException if no connection can be obtained or the query fails
+     */
+    public <T> RowIterator<T> query(String sql, RowMapper<T> rowMapper, Object... parameters) throws DalException {
+        Connection connection = ConnectionManager.INSTANCE.getConnection(accessMode);
+        boolean autoCommit = true;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+            statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            DalUtils.bindParameters(statement, parameters);
+            resultSet = statement.executeQuery();
+            resultSet.setFetchSize(fetchSize);
+            return new RowIterator<T>(connection, autoCommit, statement, resultSet, rowMapper);
+        } catch (SQLException e) {
+            RowIterator.close(resultSet, statement, connection, autoCommit);
+            logger.error("Unable to run query " + sql + ": " + e.getMessage(), e);
+            throw new DalException("SQLException encountered in StreamingReader: " + e.getMessage(), e);
+        }
+    }
+}
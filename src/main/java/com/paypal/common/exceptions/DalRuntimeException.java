@@ -0,0 +1,15 @@
+package com.paypal.common.exceptions;
+
+/**
+ * Implementation of RuntimeException for DAL errors raised where a checked exception cannot be thrown,
+ * e.g. while iterating over the rows of a query
+ */
+public class DalRuntimeException extends RuntimeException {
+    public DalRuntimeException(String message) {
+        super(message);
+    }
+
+    public DalRuntimeException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,15 @@
+package com.paypal.common.exceptions;
+
+/**
+ * Implementation of DalException for a connection request that timed out because every connection of the pool was in
+ * use, as opposed to the database failing to open connections
+ */
+public class PoolExhaustedException extends DalException {
+    public PoolExhaustedException(String message) {
+        super(message);
+    }
+
+    public PoolExhaustedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
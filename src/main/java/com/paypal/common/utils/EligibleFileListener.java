@@ -0,0 +1,17 @@
+package com.paypal.common.utils;
+
+import java.nio.file.Path;
+
+/**
+ * Receives the files an EligibleFileWatcher finds eligible for processing
+ */
+public interface EligibleFileListener {
+
+    /**
+     * Called once a new or changed file has stopped changing and is eligible for processing, on the watcher thread.
+     * Long processing should be handed off to another thread so that the watcher keeps up with new events.
+     *
+     * @param file - the eligible file
+     */
+    void fileEligible(Path file);
+}
@@ -0,0 +1,364 @@
+package com.paypal.common.utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Iterator over the files under a root directory that are eligible for processing (see
+ * FileStatusManager.scanEligible).
+ * <p/>
+ * The tree is scanned in the background, one directory at a time: the entries of a directory and their attributes
+ * are read in a single pass, and each target file is matched in memory against the status files of the same listing
+ * or against the directory index.  Eligible files are handed over in small batches through a bounded queue as they
+ * are found, so the caller can start processing before the scan completes, and the scan waits when the caller falls
+ * behind.  In
+ * parallel mode, subdirectories are scanned by a shared fork-join pool; a worker that waits for the caller is
+ * compensated by the pool (see ForkJoinPool.managedBlock), so a slow caller does not starve other scans.
+ * <p/>
+ * Directories and files that cannot be read are logged and skipped.  Symbolic links to files are followed, as
+ * File.isFile does; symbolic links to directories are not.  Close the scan, e.g. with try-with-resources, to stop
+ * it early.
+ */
+public class EligibleFileScan implements Iterator<Path>, AutoCloseable {
+    private static Logger logger = Logger.getLogger(EligibleFileScan.class);
+    private static final int QUEUE_CAPACITY = 16;
+    private static final int BATCH_SIZE = 256;
+    private static final List<Path> END = Collections.emptyList();
+    private static final long OFFER_TIMEOUT = 100;
+    private static ForkJoinPool forkJoinPool = null;
+    private final Path root;
+    private final DirectoryStream.Filter<? super Path> filter;
+    private final boolean parallel;
+    private final boolean recursive;
+    //batches of eligible files, then END
+    private final BlockingQueue<List<Path>> queue = new ArrayBlockingQueue<List<Path>>(QUEUE_CAPACITY);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final AtomicLong scannedDirectories = new AtomicLong();
+    private final AtomicLong scannedFiles = new AtomicLong();
+    private final AtomicLong eligibleFiles = new AtomicLong();
+    private Iterator<Path> batch = END.iterator();
+    private boolean finished = false;
+
+    /**
+     * @param root     - the directory to scan
+     * @param filter   - accepts the target files to check; status files are never returned
+     * @param parallel  - whether to scan subdirectories in parallel
+     * @param recursive - whether to scan subdirectories at all
+     */
+    EligibleFileScan(Path root, DirectoryStream.Filter<? super Path> filter, boolean parallel, boolean recursive) {
+        this.root = root;
+        this.filter = filter;
+        this.parallel = parallel;
+        this.recursive = recursive;
+    }
+
+    /**
+     * Start scanning on a background thread
+     */
+    void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (parallel && recursive) {
+                        getForkJoinPool().invoke(new DirectoryTask(root));
+                    }
+                    else {
+                        scanSequentially();
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Error while scanning " + root + ": " + e.getMessage(), e);
+                } finally {
+                    emit(END);
+                }
+            }
+        }, "file-scan");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The fork-join pool shared by parallel scans, with one thread per core
+     */
+    private static synchronized ForkJoinPool getForkJoinPool() {
+        if (forkJoinPool == null) {
+            forkJoinPool = new ForkJoinPool();
+        }
+        return forkJoinPool;
+    }
+
+    private void scanSequentially() {
+        Deque<Path> directories = new ArrayDeque<Path>();
+        directories.push(root);
+        while (!directories.isEmpty() && !closed.get()) {
+            List<Path> subdirectories = scanDirectory(directories.pop());
+            //push in reverse so that subdirectories are scanned in name order
+            for (int i = recursive ? subdirectories.size() - 1 : -1; i >= 0; i--) {
+                directories.push(subdirectories.get(i));
+            }
+        }
+    }
+
+    /**
+     * Scan the files of one directory and hand over the eligible ones
+     *
+     * @return List - the subdirectories of the directory, in name order
+     */
+    private List<Path> scanDirectory(Path directory) {
+        final Map<String, BasicFileAttributes> files = new TreeMap<String, BasicFileAttributes>();
+        final List<Path> subdirectories = new ArrayList<Path>();
+        try {
+            Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isSymbolicLink()) {
+                        try {
+                            BasicFileAttributes target = Files.readAttributes(file, BasicFileAttributes.class);
+                            if (target.isRegularFile()) {
+                                files.put(file.getFileName().toString(), target);
+                            }
+                        } catch (IOException e) {
+                            logger.warn("Unable to read the target of " + file + ": " + e.getMessage());
+                        }
+                    }
+                    else if (attributes.isDirectory()) {
+                        subdirectories.add(file);
+                    }
+                    else if (attributes.isRegularFile()) {
+                        files.put(file.getFileName().toString(), attributes);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    logger.warn("Unable to read " + file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Unable to scan " + directory + ": " + e.getMessage());
+            return subdirectories;
+        }
+        scannedDirectories.incrementAndGet();
+        Collections.sort(subdirectories);
+
+        Map<String, FileStatusRecord> records = null;
+        if (FileStatusManager.getStatusStore() == FileStatusManager.StatusStore.DIRECTORY_INDEX) {
+            try {
+                records = FileStatusIndex.forDirectory(directory).getRecords();
+            } catch (IOException e) {
+                logger.warn("Unable to read the status index of " + directory + ": " + e.getMessage());
+                return subdirectories;
+            }
+        }
+        List<Path> eligible = new ArrayList<Path>();
+        for (Map.Entry<String, BasicFileAttributes> entry : files.entrySet()) {
+            if (closed.get()) {
+                break;
+            }
+            String fileName = entry.getKey();
+            if (FileStatusManager.isStatusFileName(fileName)) {
+                continue;
+            }
+            Path path = directory.resolve(fileName);
+            try {
+                if (!filter.accept(path)) {
+                    continue;
+                }
+                scannedFiles.incrementAndGet();
+                FileStatusManager.FileStatus status;
+                if (records != null) {
+                    status = FileStatusManager.getIndexedFileStatus(path.toFile(), entry.getValue(), records.get(fileName));
+                }
+                else {
+                    String statFileName = fileName + "." + FileStatusManager.STAT_FILE_EXT;
+                    BasicFileAttributes statAttributes = files.get(statFileName);
+                    status = statAttributes == null ? FileStatusManager.FileStatus.ELIGIBLE_TO_PROCESS
+                            : FileStatusManager.getSiblingFileStatus(path.toFile(), entry.getValue(),
+                            new File(directory.toFile(), statFileName), statAttributes.lastModifiedTime().toMillis());
+                }
+                if (status == FileStatusManager.FileStatus.ELIGIBLE_TO_PROCESS) {
+                    eligibleFiles.incrementAndGet();
+                    eligible.add(path);
+                    if (eligible.size() == BATCH_SIZE) {
+                        emit(eligible);
+                        eligible = new ArrayList<Path>();
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Unable to get the status of " + path + ": " + e.getMessage());
+            }
+        }
+        if (!eligible.isEmpty()) {
+            emit(eligible);
+        }
+        return subdirectories;
+    }
+
+    /**
+     * Hand over a batch, waiting while the queue is full unless the scan is closed
+     */
+    private void emit(List<Path> paths) {
+        try {
+            ForkJoinPool.managedBlock(new BatchOffer(paths));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed.set(true);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!batch.hasNext()) {
+            if (finished) {
+                return false;
+            }
+            List<Path> paths;
+            try {
+                paths = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Interrupted while waiting for the scan of " + root, e);
+            }
+            if (paths == END) {
+                finished = true;
+                closed.set(true);
+                return false;
+            }
+            batch = paths.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Path next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return batch.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Files cannot be removed from a scan");
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the number of directories scanned so far
+     * @return long
+     */
+    public long getScannedDirectoryCount() {
+        return scannedDirectories.get();
+    }
+
+    /**
+     * Returns the number of target files checked so far
+     * @return long
+     */
+    public long getScannedFileCount() {
+        return scannedFiles.get();
+    }
+
+    /**
+     * Returns the number of eligible files found so far, including those not yet returned by next
+     * @return long
+     */
+    public long getEligibleFileCount() {
+        return eligibleFiles.get();
+    }
+
+    /**
+     * Stop the scan.  Files found but not yet returned are discarded.  Calling close more than once has no effect.
+     */
+    @Override
+    public void close() {
+        closed.set(true);
+        finished = true;
+        batch = END.iterator();
+        queue.clear();
+    }
+
+    /**
+     * Offers a batch to the queue.  Outside of a fork-join pool, managedBlock simply calls block until it returns true.
+     */
+    private final class BatchOffer implements ForkJoinPool.ManagedBlocker {
+        private final List<Path> paths;
+        private boolean offered = false;
+
+        BatchOffer(List<Path> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!offered) {
+                offered = queue.offer(paths, OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            return offered || closed.get();
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (!offered) {
+                offered = queue.offer(paths);
+            }
+            return offered || closed.get();
+        }
+    }
+
+    /**
+     * Scans a directory, then its subdirectories as forked subtasks
+     */
+    private final class DirectoryTask extends RecursiveAction {
+        private final Path directory;
+
+        DirectoryTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            if (closed.get()) {
+                return;
+            }
+            List<Path> subdirectories = scanDirectory(directory);
+            List<DirectoryTask> tasks = new ArrayList<DirectoryTask>(subdirectories.size());
+            for (Path subdirectory : subdirectories) {
+                tasks.add(new DirectoryTask(subdirectory));
+            }
+            invokeAll(tasks);
+        }
+    }
+}
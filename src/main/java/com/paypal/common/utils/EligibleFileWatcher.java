@@ -0,0 +1,424 @@
+package com.paypal.common.utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feed of the files that become eligible for processing in a set of directories, driven by file system events
+ * instead of polling:
+ * <pre>
+ * EligibleFileWatcher watcher = new EligibleFileWatcher();
+ * watcher.watch(dropDirectory, csvFilter);
+ * while (running) {
+ *     Path file = watcher.take();
+ *     ... process the file, then FileStatusManager.createStatFile(file.toFile())
+ * }
+ * </pre>
+ * Directories are registered with a WatchService.  A file that is created or modified is held back until its size
+ * and last modified time have not changed for the stable time, so that files still being written are not picked
+ * up, and is then delivered if FileStatusManager finds it eligible.  Files are delivered to a bounded queue, or to an
+ * EligibleFileListener if one is given.  When the queue is full, the watcher waits for the caller to take files.
+ * <p/>
+ * Each version of a file is delivered once.  The watcher remembers the files it has delivered until FileStatusManager
+ * no longer finds them eligible, which it checks every SWEEP_INTERVAL, so processed files that are left in place do
+ * not accumulate.  When a directory is first watched, and whenever the WatchService drops
+ * events for it, the directory is scanned so that no eligible file is missed.  Call rescan to deliver again every
+ * file that is still eligible, e.g. files whose processing failed.  Subdirectories are not watched.
+ */
+public class EligibleFileWatcher implements AutoCloseable {
+    private static Logger logger = Logger.getLogger(EligibleFileWatcher.class);
+    public static final long DEFAULT_STABLE_TIME = 1000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final long MAX_TICK = 500;
+    private static final long OFFER_TIMEOUT = 100;
+    public static final long SWEEP_INTERVAL = 10000;
+    private final long stableTimeInMs;
+    private final BlockingQueue<Path> queue;
+    private final EligibleFileListener listener;
+    private final WatchService watchService;
+    private final Map<WatchKey, WatchedDirectory> directories = new ConcurrentHashMap<WatchKey, WatchedDirectory>();
+    private final Queue<WatchedDirectory> rescanRequests = new ConcurrentLinkedQueue<WatchedDirectory>();
+    //the state below is only used by the watcher thread
+    private final Map<Path, PendingFile> pendingFiles = new LinkedHashMap<Path, PendingFile>();
+    private final Map<Path, PendingFile> deliveredFiles = new HashMap<Path, PendingFile>();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong rescanCount = new AtomicLong();
+    private long lastSweep = System.currentTimeMillis();
+    private Thread thread = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor for a watcher that delivers files to a queue of DEFAULT_QUEUE_CAPACITY once they have not changed
+     * for DEFAULT_STABLE_TIME
+     */
+    public EligibleFileWatcher() throws IOException {
+        this(DEFAULT_STABLE_TIME, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Constructor for a watcher that delivers files to a queue, see take and poll
+     *
+     * @param stableTimeInMs - how long a file must stay unchanged before it is delivered
+     * @param queueCapacity  - how many files can wait to be taken
+     */
+    public EligibleFileWatcher(long stableTimeInMs, int queueCapacity) throws IOException {
+        this(stableTimeInMs, new ArrayBlockingQueue<Path>(queueCapacity), null);
+    }
+
+    /**
+     * Constructor for a watcher that delivers files to a listener
+     *
+     * @param stableTimeInMs - how long a file must stay unchanged before it is delivered
+     * @param listener       - receives the eligible files, on the watcher thread
+     */
+    public EligibleFileWatcher(long stableTimeInMs, EligibleFileListener listener) throws IOException {
+        this(stableTimeInMs, null, listener);
+    }
+
+    private EligibleFileWatcher(long stableTimeInMs, BlockingQueue<Path> queue, EligibleFileListener listener) throws IOException {
+        this.stableTimeInMs = stableTimeInMs;
+        this.queue = queue;
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Start watching a directory.  Eligible files already in the directory are delivered too.
+     *
+     * @param directory - the directory to watch
+     * @param filter    - accepts the files to deliver, or null to deliver all files.  Status files are never delivered.
+     */
+    public synchronized void watch(Path directory, DirectoryStream.Filter<? super Path> filter) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The watcher is closed");
+        }
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Cannot watch " + directory + " because it is not a directory");
+        }
+        if (filter == null) {
+            filter = new DirectoryStream.Filter<Path>() {
+                @Override
+                public boolean accept(Path entry) {
+                    return true;
+                }
+            };
+        }
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        WatchedDirectory watched = new WatchedDirectory(directory, filter);
+        directories.put(key, watched);
+        rescanRequests.add(watched);
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWatcher();
+                }
+            }, "file-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Deliver again every file of the watched directories that is still eligible
+     */
+    public void rescan() {
+        for (WatchedDirectory watched : directories.values()) {
+            watched.redeliver = true;
+            rescanRequests.add(watched);
+        }
+    }
+
+    /**
+     * Returns the next eligible file, waiting until there is one.  Only for watchers without a listener.
+     *
+     * @return Path
+     */
+    public Path take() throws InterruptedException {
+        checkQueue();
+        return queue.take();
+    }
+
+    /**
+     * Returns the next eligible file, waiting up to the given time for one
+     *
+     * @param timeout - how long to wait
+     * @param unit    - the unit of the timeout
+     * @return Path - or null if no file became eligible in time
+     */
+    public Path poll(long timeout, TimeUnit unit) throws InterruptedException {
+        checkQueue();
+        return queue.poll(timeout, unit);
+    }
+
+    private void checkQueue() {
+        if (queue == null) {
+            throw new IllegalStateException("Files are delivered to the listener of this watcher");
+        }
+    }
+
+    /**
+     * Returns the number of files delivered so far
+     * @return long
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * Returns the number of times a directory has been scanned, when it was first watched, after events were dropped
+     * or on request
+     * @return long
+     */
+    public long getRescanCount() {
+        return rescanCount.get();
+    }
+
+    /**
+     * Stop watching.  Files waiting in the queue can still be taken.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Unable to close the watch service: " + e.getMessage());
+        }
+    }
+
+    private void runWatcher() {
+        long tick = Math.max(10, Math.min(MAX_TICK, stableTimeInMs / 2));
+        try {
+            while (!closed) {
+                WatchedDirectory watched;
+                while ((watched = rescanRequests.poll()) != null) {
+                    scan(watched);
+                }
+                WatchKey key = watchService.poll(tick, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+                deliverStableFiles();
+                sweepDeliveredFiles();
+            }
+        } catch (ClosedWatchServiceException e) {
+            //closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("File watcher stopped: " + e.getMessage(), e);
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        WatchedDirectory watched = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (watched == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                logger.warn("Events were dropped for " + watched.directory + ", rescanning it");
+                scan(watched);
+                continue;
+            }
+            Path file = watched.directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pendingFiles.remove(file);
+                deliveredFiles.remove(file);
+            }
+            else if (accept(watched, file)) {
+                //held back until it stops changing, see deliverStableFiles
+                if (!pendingFiles.containsKey(file)) {
+                    pendingFiles.put(file, new PendingFile(-1, -1, 0));
+                }
+            }
+        }
+        if (!key.reset()) {
+            logger.warn("Stopped watching " + (watched == null ? key.watchable() : watched.directory) + " because it is no longer accessible");
+            directories.remove(key);
+        }
+    }
+
+    private boolean accept(WatchedDirectory watched, Path file) {
+        if (FileStatusManager.isStatusFileName(file.getFileName().toString())) {
+            return false;
+        }
+        try {
+            return watched.filter.accept(file);
+        } catch (IOException e) {
+            logger.warn("Unable to filter " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Scan a directory for eligible files and hold them back like new files, so that a file being written when
+     * events were dropped is not delivered early
+     */
+    private void scan(WatchedDirectory watched) {
+        rescanCount.incrementAndGet();
+        if (watched.redeliver) {
+            watched.redeliver = false;
+            Iterator<Path> delivered = deliveredFiles.keySet().iterator();
+            while (delivered.hasNext()) {
+                if (watched.directory.equals(delivered.next().getParent())) {
+                    delivered.remove();
+                }
+            }
+        }
+        EligibleFileScan scan = new EligibleFileScan(watched.directory, watched.filter, false, false);
+        scan.start();
+        try {
+            while (scan.hasNext()) {
+                Path file = scan.next();
+                if (!pendingFiles.containsKey(file)) {
+                    pendingFiles.put(file, new PendingFile(-1, -1, 0));
+                }
+            }
+        } finally {
+            scan.close();
+        }
+    }
+
+    /**
+     * Deliver the pending files that have not changed for the stable time and are eligible
+     */
+    private void deliverStableFiles() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, PendingFile>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext() && !closed) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            Path file = entry.getKey();
+            PendingFile pending = entry.getValue();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                iterator.remove();
+                continue;
+            } catch (IOException e) {
+                logger.warn("Unable to read the attributes of " + file + ": " + e.getMessage());
+                iterator.remove();
+                continue;
+            }
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (!attributes.isRegularFile()) {
+                iterator.remove();
+            }
+            else if (size != pending.size || lastModified != pending.lastModified) {
+                entry.setValue(new PendingFile(size, lastModified, now));
+            }
+            else if (now - pending.stableSince >= stableTimeInMs) {
+                iterator.remove();
+                PendingFile delivered = deliveredFiles.get(file);
+                if (delivered != null && delivered.size == size && delivered.lastModified == lastModified) {
+                    continue;
+                }
+                if (isEligible(file)) {
+                    deliveredFiles.put(file, pending);
+                    deliver(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget the delivered files that are no longer eligible, i.e. have been processed or removed
+     */
+    private void sweepDeliveredFiles() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < SWEEP_INTERVAL) {
+            return;
+        }
+        lastSweep = now;
+        Iterator<Path> delivered = deliveredFiles.keySet().iterator();
+        while (delivered.hasNext() && !closed) {
+            Path file = delivered.next();
+            if (!Files.exists(file) || !isEligible(file)) {
+                delivered.remove();
+            }
+        }
+    }
+
+    private boolean isEligible(Path file) {
+        try {
+            return FileStatusManager.getFileStatus(file.toFile()) == FileStatusManager.FileStatus.ELIGIBLE_TO_PROCESS;
+        } catch (Exception e) {
+            logger.warn("Unable to get the status of " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void deliver(Path file) throws InterruptedException {
+        deliveredCount.incrementAndGet();
+        if (listener != null) {
+            try {
+                listener.fileEligible(file);
+            } catch (RuntimeException e) {
+                logger.error("EligibleFileListener failed for " + file + ": " + e.getMessage(), e);
+            }
+            return;
+        }
+        while (!closed) {
+            if (queue.offer(file, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A watched directory and the filter of its files
+     */
+    private static final class WatchedDirectory {
+        private final Path directory;
+        private final DirectoryStream.Filter<? super Path> filter;
+        private volatile boolean redeliver = false;
+
+        WatchedDirectory(Path directory, DirectoryStream.Filter<? super Path> filter) {
+            this.directory = directory;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * The size and last modified time a file was last seen with, and since when it has had them
+     */
+    private static final class PendingFile {
+        private final long size;
+        private final long lastModified;
+        private final long stableSince;
+
+        PendingFile(long size, long lastModified, long stableSince) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.stableSince = stableSince;
+        }
+    }
+}
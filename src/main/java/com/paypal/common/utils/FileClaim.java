@@ -0,0 +1,260 @@
+package com.paypal.common.utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lease on a target file that lets one worker process it while other workers, in this or other processes on the
+ * same host or a shared mount, skip it (see FileStatusManager.claim).
+ * <p/>
+ * A claim is a [Target File Name].common-claim file next to the target file, created atomically so that only one
+ * worker can hold it.  Its last modified time is renewed by a heartbeat every third of the lease time.  If the
+ * worker dies, the heartbeat stops and once the lease time has passed the claim can be taken over by another worker.
+ * The worker ends the claim with complete, which records the file as processed, or release, which leaves it eligible.
+ * <p/>
+ * Expiry compares the claim file's last modified time with the local clock, so the clocks of the hosts sharing a
+ * mount must agree to well within the lease time.  A worker whose claim was taken over, e.g. after a long pause,
+ * finds out from renew or isValid and should stop processing the file.
+ */
+public class FileClaim implements AutoCloseable {
+    private static Logger logger = Logger.getLogger(FileClaim.class);
+    public static final String CLAIM_FILE_EXT = "common-claim";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String OWNER = ManagementFactory.getRuntimeMXBean().getName();
+    private static final ScheduledExecutorService HEARTBEAT = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "file-claim-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final File targetFile;
+    private final Path claimFile;
+    private final String content;
+    private final long leaseTimeInMs;
+    private ScheduledFuture<?> heartbeat = null;
+    private volatile boolean valid = true;
+
+    private FileClaim(File targetFile, Path claimFile, String content, long leaseTimeInMs) {
+        this.targetFile = targetFile;
+        this.claimFile = claimFile;
+        this.content = content;
+        this.leaseTimeInMs = leaseTimeInMs;
+    }
+
+    /**
+     * Claim a file, taking over an expired claim if there is one, and start the heartbeat
+     *
+     * @param targetFile    - the file to claim
+     * @param leaseTimeInMs - how long the claim lasts without a heartbeat
+     * @return FileClaim - or null if another worker holds a claim on the file
+     */
+    static FileClaim tryClaim(File targetFile, long leaseTimeInMs) throws IOException {
+        Path claimFile = getClaimFile(targetFile);
+        String content = UUID.randomUUID() + " " + OWNER + " " + leaseTimeInMs;
+        if (!create(claimFile, content) && !(removeIfExpired(claimFile, leaseTimeInMs) && create(claimFile, content))) {
+            return null;
+        }
+        final FileClaim claim = new FileClaim(targetFile, claimFile, content, leaseTimeInMs);
+        long interval = Math.max(1, leaseTimeInMs / 3);
+        claim.heartbeat = HEARTBEAT.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                claim.renew();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        return claim;
+    }
+
+    static Path getClaimFile(File targetFile) {
+        return targetFile.toPath().resolveSibling(targetFile.getName() + "." + CLAIM_FILE_EXT);
+    }
+
+    /**
+     * Returns whether or not a file name is that of a claim file, or of an expired claim being taken over
+     */
+    static boolean isClaimFileName(String fileName) {
+        return fileName.endsWith("." + CLAIM_FILE_EXT) || fileName.contains("." + CLAIM_FILE_EXT + ".");
+    }
+
+    /**
+     * Create the claim file if it does not exist, as a single atomic operation
+     */
+    private static boolean create(Path claimFile, String content) throws IOException {
+        try {
+            Files.write(claimFile, content.getBytes(UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Remove a claim whose lease has passed.  The claim is first moved aside under a unique name, which only one
+     * worker can do, and put back if it turns out to have been renewed or replaced in the meantime.
+     *
+     * @param defaultLeaseTimeInMs - the lease time to assume if the claim file does not say
+     * @return boolean - true if there is no longer a claim
+     */
+    private static boolean removeIfExpired(Path claimFile, long defaultLeaseTimeInMs) throws IOException {
+        String claimContent;
+        try {
+            claimContent = read(claimFile);
+            if (!isExpired(claimFile, claimContent, defaultLeaseTimeInMs)) {
+                return false;
+            }
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+        Path expired = claimFile.resolveSibling(claimFile.getFileName() + "." + UUID.randomUUID() + ".expired");
+        try {
+            Files.move(claimFile, expired, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            //another worker removed it first
+            return true;
+        }
+        if (!claimContent.equals(read(expired)) || !isExpired(expired, claimContent, defaultLeaseTimeInMs)) {
+            try {
+                Files.move(expired, claimFile);
+            } catch (FileAlreadyExistsException e) {
+                Files.delete(expired);
+            }
+            return false;
+        }
+        Files.delete(expired);
+        logger.info("Took over the expired claim " + claimFile + " of " + claimContent);
+        return true;
+    }
+
+    private static boolean isExpired(Path claimFile, String claimContent, long defaultLeaseTimeInMs) throws IOException {
+        long leaseTimeInMs = defaultLeaseTimeInMs;
+        String[] fields = claimContent.split(" ");
+        if (fields.length == 3) {
+            try {
+                leaseTimeInMs = Long.parseLong(fields[2]);
+            } catch (NumberFormatException e) {
+                //use the default
+            }
+        }
+        return System.currentTimeMillis() - Files.getLastModifiedTime(claimFile).toMillis() > leaseTimeInMs;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), UTF_8);
+    }
+
+    public File getTargetFile() {
+        return targetFile;
+    }
+
+    public long getLeaseTimeInMs() {
+        return leaseTimeInMs;
+    }
+
+    /**
+     * Returns whether or not the claim is still held: it has not been released or completed, and has not been taken
+     * over by another worker as of the last heartbeat
+     *
+     * @return boolean
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Renew the lease now.  The heartbeat does this automatically.
+     *
+     * @return boolean - false if the claim is no longer held, or could not be renewed
+     */
+    public synchronized boolean renew() {
+        if (!valid) {
+            return false;
+        }
+        try {
+            if (!isOwned()) {
+                logger.warn("The claim on " + targetFile + " was taken over by another worker");
+                end();
+                return false;
+            }
+            Files.setLastModifiedTime(claimFile, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            logger.warn("Unable to renew the claim on " + targetFile + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean isOwned() throws IOException {
+        try {
+            return content.equals(read(claimFile));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Record the target file as processed, see FileStatusManager.createStatFile, and release the claim
+     *
+     * @return boolean - false if the claim had been taken over by another worker; the file is recorded regardless
+     */
+    public synchronized boolean complete() throws IOException {
+        boolean owned = valid && isOwned();
+        if (!owned) {
+            logger.warn("Completing " + targetFile + " after its claim was lost");
+        }
+        FileStatusManager.createStatFile(targetFile);
+        release();
+        return owned;
+    }
+
+    /**
+     * Give up the claim without recording the target file as processed, so that it stays eligible.  Calling release
+     * more than once, or after complete, has no effect.
+     */
+    public synchronized void release() {
+        if (!valid) {
+            return;
+        }
+        try {
+            if (isOwned()) {
+                Files.delete(claimFile);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to release the claim on " + targetFile + ": " + e.getMessage());
+        }
+        end();
+    }
+
+    private void end() {
+        valid = false;
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+    }
+
+    /**
+     * Same as release
+     */
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,362 @@
+package com.paypal.common.utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * The processing status of the files of one directory, kept in a single journal file in that directory instead of
+ * one .common-stat file per target file.  The journal maps a file name to the last modified time, size and
+ * optionally content hash the file had when it was processed, and is read into memory so that status checks do not touch the disk.
+ * <p/>
+ * The journal is append-only: every update appends one record, checksummed so that a record torn by a crash is
+ * detected and dropped.  Appends and compaction hold an exclusive lock on a separate lock file, so several processes
+ * can share a directory; each process reads the records appended by the others before its next lookup.  Once most
+ * records are superseded, the journal is compacted into a temporary file that atomically replaces it.
+ * <p/>
+ * The header holds an epoch that every compaction increments, and each read compares it with the epoch the records
+ * in memory were read under, so a process notices that another one has replaced the journal whatever the file system
+ * reports as the file key.
+ */
+final class FileStatusIndex {
+    private static Logger logger = Logger.getLogger(FileStatusIndex.class);
+    static final String INDEX_FILE_NAME = "." + FileStatusManager.STAT_FILE_EXT;
+    static final String LOCK_FILE_NAME = INDEX_FILE_NAME + ".lock";
+    private static final String TEMP_FILE_NAME = INDEX_FILE_NAME + ".tmp";
+    private static final int MAGIC = 0x43535449;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int EPOCH_OFFSET = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte PUT_WITH_HASH = 3;
+    private static final int COMPACTION_THRESHOLD = 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final ConcurrentMap<Path, FileStatusIndex> indexes = new ConcurrentHashMap<Path, FileStatusIndex>();
+    private final Path indexFile;
+    private final Path lockFile;
+    private final Path tempFile;
+    private final Map<String, FileStatusRecord> records = new HashMap<String, FileStatusRecord>();
+    private long readPosition = 0;
+    private long epoch = 0;
+    private int journalRecordCount = 0;
+
+    /**
+     * Constructor - an index that does not share its state with the other readers of the directory in this jvm, as if
+     * it were in another process; use forDirectory otherwise
+     *
+     * @param directory - the directory of the target files
+     */
+    FileStatusIndex(Path directory) {
+        this.indexFile = directory.resolve(INDEX_FILE_NAME);
+        this.lockFile = directory.resolve(LOCK_FILE_NAME);
+        this.tempFile = directory.resolve(TEMP_FILE_NAME);
+    }
+
+    /**
+     * Returns the index of a directory, shared by all callers in this JVM
+     *
+     * @param directory - the directory of the target files
+     * @return FileStatusIndex
+     */
+    static FileStatusIndex forDirectory(Path directory) {
+        Path key = directory.toAbsolutePath().normalize();
+        FileStatusIndex index = indexes.get(key);
+        if (index == null) {
+            FileStatusIndex created = new FileStatusIndex(key);
+            index = indexes.putIfAbsent(key, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns whether or not a file name belongs to the index itself rather than to a target file
+     */
+    static boolean isIndexFile(String fileName) {
+        return fileName.equals(INDEX_FILE_NAME) || fileName.equals(LOCK_FILE_NAME) || fileName.equals(TEMP_FILE_NAME);
+    }
+
+    /**
+     * Returns the recorded status of a file, or null if it has not been processed
+     *
+     * @param fileName - the name of the target file within the directory
+     * @return FileStatusRecord
+     */
+    synchronized FileStatusRecord get(String fileName) throws IOException {
+        refresh();
+        return records.get(fileName);
+    }
+
+    /**
+     * Returns a copy of the records of all processed files of the directory, by file name
+     *
+     * @return Map&lt;String, FileStatusRecord&gt;
+     */
+    synchronized Map<String, FileStatusRecord> getRecords() throws IOException {
+        refresh();
+        return new HashMap<String, FileStatusRecord>(records);
+    }
+
+    /**
+     * Record that a file has been processed
+     *
+     * @param fileName - the name of the target file within the directory
+     * @param record   - what the file looked like when it was processed
+     */
+    synchronized void put(String fileName, FileStatusRecord record) throws IOException {
+        append(record.getContentHash() == null ? PUT : PUT_WITH_HASH, fileName, record);
+    }
+
+    /**
+     * Forget that a file has been processed, so that it is eligible again
+     *
+     * @param fileName - the name of the target file within the directory
+     */
+    synchronized void remove(String fileName) throws IOException {
+        refresh();
+        if (records.containsKey(fileName)) {
+            append(REMOVE, fileName, null);
+        }
+    }
+
+    /**
+     * Read the records appended since the last read, or the whole journal if it has been replaced
+     */
+    private void refresh() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(indexFile, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            if (readPosition != 0) {
+                clear();
+            }
+            return;
+        }
+        try {
+            if (readPosition != 0 && (channel.size() < readPosition || readEpoch(channel) != epoch)) {
+                //the journal was compacted by another process since it was last read
+                clear();
+            }
+            if (channel.size() != readPosition) {
+                read(channel);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void clear() {
+        records.clear();
+        readPosition = 0;
+        journalRecordCount = 0;
+    }
+
+    /**
+     * Returns the epoch in the header of the journal, or -1 if the header is incomplete
+     */
+    private static long readEpoch(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (buffer.hasRemaining() && channel.read(buffer, EPOCH_OFFSET + buffer.position()) >= 0) {
+            //read until the buffer is full
+        }
+        return buffer.hasRemaining() ? -1 : buffer.getLong(0);
+    }
+
+    /**
+     * Apply the complete records from the read position to the end of the journal, stopping before a corrupt record
+     */
+    private void read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - readPosition));
+        while (buffer.hasRemaining() && channel.read(buffer, readPosition + buffer.position()) >= 0) {
+            //read until the buffer is full
+        }
+        buffer.flip();
+        if (readPosition == 0) {
+            if (buffer.remaining() < HEADER_SIZE) {
+                return;
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a status index: " + indexFile);
+            }
+            epoch = buffer.getLong();
+            readPosition = HEADER_SIZE;
+        }
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0 || buffer.remaining() < length + 4) {
+                buffer.position(start);
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt()) {
+                logger.warn("Ignoring corrupt record at offset " + readPosition + " of " + indexFile);
+                return;
+            }
+            apply(ByteBuffer.wrap(payload));
+            readPosition += 4 + length + 4;
+            journalRecordCount++;
+        }
+        //an incomplete record at the end is being appended, or was torn by a crash: it is read or dropped later
+    }
+
+    private void apply(ByteBuffer payload) {
+        byte type = payload.get();
+        byte[] name = new byte[payload.getShort() & 0xFFFF];
+        payload.get(name);
+        String fileName = new String(name, UTF_8);
+        if (type == REMOVE) {
+            records.remove(fileName);
+            return;
+        }
+        long lastModified = payload.getLong();
+        long size = payload.getLong();
+        byte[] contentHash = null;
+        if (type == PUT_WITH_HASH) {
+            contentHash = new byte[payload.get() & 0xFF];
+            payload.get(contentHash);
+        }
+        records.put(fileName, new FileStatusRecord(lastModified, size, contentHash));
+    }
+
+    /**
+     * Append a record under the directory lock, after reading the records appended by other processes, and compact
+     * the journal if most of its records are superseded
+     */
+    private void append(byte type, String fileName, FileStatusRecord record) throws IOException {
+        byte[] bytes = encode(type, fileName, record);
+        FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = lockChannel.lock();
+            try {
+                refresh();
+                FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    if (channel.size() != readPosition) {
+                        //a record torn by a crash: drop it before appending
+                        channel.truncate(readPosition);
+                    }
+                    if (readPosition == 0) {
+                        //a new journal starts from the clock, so that it does not reuse the epoch of a deleted one
+                        epoch = System.currentTimeMillis();
+                        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                        header.putInt(MAGIC).putInt(VERSION).putLong(epoch).flip();
+                        write(channel, header, 0);
+                        readPosition = HEADER_SIZE;
+                    }
+                    write(channel, ByteBuffer.wrap(bytes), readPosition);
+                } finally {
+                    channel.close();
+                }
+                readPosition += bytes.length;
+                journalRecordCount++;
+                if (type == REMOVE) {
+                    records.remove(fileName);
+                }
+                else {
+                    records.put(fileName, record);
+                }
+                if (journalRecordCount - records.size() > Math.max(COMPACTION_THRESHOLD, records.size())) {
+                    compact();
+                }
+            } finally {
+                lock.release();
+            }
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    /**
+     * Rewrite the journal with one record per processed file.  The new journal is written and synced to a temporary
+     * file, then moved over the old one, so a crash leaves either the old or the new journal.  The new journal has the
+     * next epoch, which tells the other processes to read it from the start.
+     */
+    private void compact() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(epoch + 1);
+        for (Map.Entry<String, FileStatusRecord> entry : records.entrySet()) {
+            byte type = entry.getValue().getContentHash() == null ? PUT : PUT_WITH_HASH;
+            data.write(encode(type, entry.getKey(), entry.getValue()));
+        }
+        data.flush();
+        FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            write(channel, ByteBuffer.wrap(out.toByteArray()), 0);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        logger.debug("Compacted " + indexFile + " from " + journalRecordCount + " to " + records.size() + " records");
+        epoch++;
+        readPosition = out.size();
+        journalRecordCount = records.size();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Encode a record as its length, its payload and the CRC32 of its payload
+     */
+    private static byte[] encode(byte type, String fileName, FileStatusRecord record) throws IOException {
+        byte[] name = fileName.getBytes(UTF_8);
+        if (name.length > 0xFFFF) {
+            throw new IOException("File name is too long for the status index: " + fileName);
+        }
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(32 + name.length);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeByte(type);
+        payload.writeShort(name.length);
+        payload.write(name);
+        if (type != REMOVE) {
+            payload.writeLong(record.getLastModified());
+            payload.writeLong(record.getSize());
+        }
+        if (type == PUT_WITH_HASH) {
+            payload.writeByte(record.getContentHash().length);
+            payload.write(record.getContentHash());
+        }
+        payload.flush();
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes.toByteArray());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payloadBytes.size() + 8);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(payloadBytes.size());
+        payloadBytes.writeTo(data);
+        data.writeInt((int) crc.getValue());
+        data.flush();
+        return out.toByteArray();
+    }
+}
@@ -5,6 +5,11 @@ import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * The purpose of this class is to provide a mechanism to manage the processing
@@ -21,6 +26,35 @@ import java.io.IOException;
  *      B) If processing fails, do not create/overwrite the ".common-stat" file. This will indicate
  *         that the file can be reprocessed.
  * <p/>
+ * With StatusStore.DIRECTORY_INDEX, the status of all files of a directory is kept in a single ".common-stat"
+ * journal in that directory instead, which records the last modified time and size of each file when it was
+ * processed.  A file is eligible if it was never processed or its last modified time or size has changed since.
+ * Status checks are then in-memory lookups, and no file is created per target file.  The two stores do not share
+ * their records, so switching stores makes every file eligible once.
+ * <p/>
+ * With ChangeDetection.CONTENT, the size, last modified time and an MD5 hash of the content of a file are recorded
+ * when it is processed, and a file only becomes eligible again when its content changes: a file that is touched or
+ * copied again unchanged is not reprocessed.  The size and last modified time are compared first, and the content
+ * is only hashed when the size is the same but the last modified time is not.  Files processed before content
+ * change detection was turned on are compared by last modified time until they are processed again.
+ * <p/>
+ * To find the eligible files of a whole tree, use scanEligible rather than calling getFileStatus per file: it reads
+ * each directory once and checks its files in memory.
+ * <p/>
+ * When several workers, in one or more processes, share a directory, each should claim a file before processing it
+ * (see claim), so that every file is processed by one worker only:
+ * <pre>
+ * FileClaim claim = FileStatusManager.claim(file, leaseTimeInMs);
+ * if (claim != null) {
+ *     try {
+ *         ... process the file
+ *         claim.complete();
+ *     } finally {
+ *         claim.release();
+ *     }
+ * }
+ * </pre>
+ * <p/>
  * User: dev
  * Date: 5/22/13
  * Time: 10:31 AM
@@ -28,6 +62,8 @@ import java.io.IOException;
 public class FileStatusManager {
     private static Logger logger = Logger.getLogger(FileStatusManager.class);
     public static final String STAT_FILE_EXT = "common-stat";
+    private static volatile StatusStore statusStore = StatusStore.SIBLING_FILE;
+    private static volatile ChangeDetection changeDetection = ChangeDetection.LAST_MODIFIED;
 
     /**
      * Possible status for a target file
@@ -40,7 +76,103 @@ public class FileStatusManager {
     }
 
     /**
-     * Will create or overwrite the .common-stat file for the target file
+     * Where the processing status is kept
+     * SIBLING_FILE     - one [Target File Name].common-stat file per target file, the default
+     * DIRECTORY_INDEX  - one .common-stat journal per directory
+     */
+    public enum StatusStore {
+        SIBLING_FILE,
+        DIRECTORY_INDEX,
+    }
+
+    /**
+     * How a processed file is found to have changed
+     * LAST_MODIFIED    - its last modified time is later than when it was processed, or differs from the one
+     *                    recorded in the directory index, or its size differs; the default
+     * CONTENT          - its content differs from when it was processed
+     */
+    public enum ChangeDetection {
+        LAST_MODIFIED,
+        CONTENT,
+    }
+
+    public static StatusStore getStatusStore() {
+        return statusStore;
+    }
+
+    /**
+     * Set where the processing status is kept.  Defaults to SIBLING_FILE.
+     *
+     * @param store - StatusStore
+     */
+    public static void setStatusStore(StatusStore store) {
+        statusStore = store;
+    }
+
+    public static ChangeDetection getChangeDetection() {
+        return changeDetection;
+    }
+
+    /**
+     * Set how a processed file is found to have changed.  Defaults to LAST_MODIFIED.
+     *
+     * @param detection - ChangeDetection
+     */
+    public static void setChangeDetection(ChangeDetection detection) {
+        changeDetection = detection;
+    }
+
+    /**
+     * Returns whether or not a file holds processing status rather than being a target file
+     *
+     * @param file - any file
+     * @return boolean
+     */
+    public static boolean isStatusFile(File file) {
+        return isStatusFileName(file.getName());
+    }
+
+    static boolean isStatusFileName(String fileName) {
+        return fileName.endsWith("." + STAT_FILE_EXT) || FileStatusIndex.isIndexFile(fileName) || FileClaim.isClaimFileName(fileName);
+    }
+
+    /**
+     * Claim an eligible file for processing by this worker.  Other workers cannot claim the file until the claim is
+     * completed or released, or until it expires because its heartbeat stopped for the lease time, e.g. because this
+     * process died.
+     *
+     * @param targetFile    - The file we want to perform some activity on
+     * @param leaseTimeInMs - how long the claim lasts without a heartbeat; the heartbeat renews it every third of this
+     * @return FileClaim - or null if the file is not eligible or another worker holds a claim on it
+     */
+    public static FileClaim claim(File targetFile, long leaseTimeInMs) throws IOException {
+        if (!isEligible(targetFile)) {
+            return null;
+        }
+        FileClaim claim = FileClaim.tryClaim(targetFile, leaseTimeInMs);
+        if (claim == null) {
+            return null;
+        }
+        //another worker may have completed the file between the status check and the claim
+        if (!isEligible(targetFile)) {
+            claim.release();
+            return null;
+        }
+        return claim;
+    }
+
+    private static boolean isEligible(File targetFile) throws IOException {
+        try {
+            return getFileStatus(targetFile) == FileStatus.ELIGIBLE_TO_PROCESS;
+        }
+        catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Will create or overwrite the .common-stat file for the target file, or record the target file as processed in
+     * the directory index
      *
      * @param targetFile - The file we want to perform some activity on
      * @return boolean
@@ -59,6 +191,12 @@ public class FileStatusManager {
                 logger.info("common-stat file was not created because targetFile is not a file: " + targetFile.getAbsolutePath());
                 return false;
             }
+            if (statusStore == StatusStore.DIRECTORY_INDEX || changeDetection == ChangeDetection.CONTENT) {
+                BasicFileAttributes attributes = Files.readAttributes(targetFile.toPath(), BasicFileAttributes.class);
+                byte[] contentHash = changeDetection == ChangeDetection.CONTENT ? FileUtils.contentHash(targetFile) : null;
+                writeRecord(targetFile, new FileStatusRecord(attributes.lastModifiedTime().toMillis(), attributes.size(), contentHash));
+                return true;
+            }
             // create File object
             String statFileName = targetFile.getName() + "." + STAT_FILE_EXT;
             File statFile = new File(FilenameUtils.concat(targetFile.getParent(), statFileName));
@@ -76,12 +214,23 @@ public class FileStatusManager {
     }
 
     /**
-     * Will delete the .common-stat file for the target file if it exists
+     * Will delete the .common-stat file for the target file if it exists, or remove the target file from the
+     * directory index
      *
      * @param targetFile - The file we want to perform some activity on
      * @return boolean
      */
     public static boolean deleteStatFile(File targetFile) {
+        if (statusStore == StatusStore.DIRECTORY_INDEX) {
+            try {
+                FileStatusIndex.forDirectory(targetFile.getAbsoluteFile().getParentFile().toPath()).remove(targetFile.getName());
+                return true;
+            }
+            catch (IOException e) {
+                logger.error("Error while removing " + targetFile.getName() + " from the status index." + e);
+                return false;
+            }
+        }
         // create File object
         String statFileName = targetFile.getName() + "." + STAT_FILE_EXT;
         File statFile = new File(FilenameUtils.concat(targetFile.getParent(), statFileName));
@@ -98,6 +247,9 @@ public class FileStatusManager {
      */
     public static FileStatus getFileStatus(File targetFile) throws Exception {
         try {
+            if (statusStore == StatusStore.DIRECTORY_INDEX) {
+                return getIndexedFileStatus(targetFile);
+            }
             //Check if an existing .common-stat file exists as a sibling to the target file
             //Return ELIGIBLE_TO_PROCESS IF...
             //1) the common-stat file does not exist
@@ -112,14 +264,7 @@ public class FileStatusManager {
                 return FileStatus.ELIGIBLE_TO_PROCESS;
             }
 
-            logger.debug("targetFile lastModified: " + targetFile.lastModified());
-            logger.debug("statFile lastModified: " + statFile.lastModified());
-            if (targetFile.lastModified() - statFile.lastModified() > 0) {
-                return FileStatus.ELIGIBLE_TO_PROCESS;
-            }
-
-            //otherwise, the file is not eligible for processing
-            return FileStatus.NOT_ELIGIBLE_TO_PROCESS;
+            return getSiblingFileStatus(targetFile, readAttributes(targetFile), statFile, statFile.lastModified());
         }
         catch (Exception e) {
             StringBuilder msg = new StringBuilder();
@@ -133,4 +278,152 @@ public class FileStatusManager {
             throw new Exception(msg.toString(), e);
         }
     }
+
+    /**
+     * Find the files under a directory that are eligible for processing, scanning subdirectories one at a time
+     *
+     * @param root   - The directory to scan
+     * @param filter - Accepts the files to check, or null to check all files.  Status files are never returned.
+     * @return EligibleFileScan - iterator over the eligible files as they are found; close it to stop early
+     */
+    public static EligibleFileScan scanEligible(Path root, DirectoryStream.Filter<? super Path> filter) throws IOException {
+        return scanEligible(root, filter, false);
+    }
+
+    /**
+     * Find the files under a directory that are eligible for processing
+     *
+     * @param root     - The directory to scan
+     * @param filter   - Accepts the files to check, or null to check all files.  Status files are never returned.
+     * @param parallel - Whether to scan subdirectories in parallel on a shared fork-join pool, for trees with many
+     *                 directories.  Files are then returned in no particular order.
+     * @return EligibleFileScan - iterator over the eligible files as they are found; close it to stop early
+     */
+    public static EligibleFileScan scanEligible(Path root, DirectoryStream.Filter<? super Path> filter, boolean parallel) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Cannot scan " + root + " because it is not a directory");
+        }
+        if (filter == null) {
+            filter = new DirectoryStream.Filter<Path>() {
+                @Override
+                public boolean accept(Path entry) {
+                    return true;
+                }
+            };
+        }
+        EligibleFileScan scan = new EligibleFileScan(root, filter, parallel, true);
+        scan.start();
+        return scan;
+    }
+
+    /**
+     * Status of a file that has a sibling .common-stat file: eligible if the target file is "newer" than the
+     * common-stat file or, by content, if its content differs from the record in the common-stat file
+     *
+     * @param targetFile       - the target file
+     * @param attributes       - the attributes of the target file, or null if it does not exist
+     * @param statFile         - the common-stat file of the target file
+     * @param statLastModified - the last modified time of the common-stat file
+     */
+    static FileStatus getSiblingFileStatus(File targetFile, BasicFileAttributes attributes, File statFile, long statLastModified) throws IOException {
+        if (changeDetection == ChangeDetection.CONTENT) {
+            FileStatusRecord record = FileStatusRecord.parse(FileUtils.readFileToString(statFile, "UTF-8"));
+            if (record != null && record.getContentHash() != null) {
+                return attributes == null ? FileStatus.NOT_ELIGIBLE_TO_PROCESS : getContentStatus(targetFile, attributes, record);
+            }
+        }
+
+        long lastModified = attributes == null ? 0 : attributes.lastModifiedTime().toMillis();
+        logger.debug("targetFile lastModified: " + lastModified);
+        logger.debug("statFile lastModified: " + statLastModified);
+        if (lastModified - statLastModified > 0) {
+            return FileStatus.ELIGIBLE_TO_PROCESS;
+        }
+
+        //otherwise, the file is not eligible for processing
+        return FileStatus.NOT_ELIGIBLE_TO_PROCESS;
+    }
+
+    /**
+     * Status of a file from the directory index: eligible if it was never processed or has changed since
+     */
+    private static FileStatus getIndexedFileStatus(File targetFile) throws IOException {
+        Path directory = targetFile.getAbsoluteFile().getParentFile().toPath();
+        FileStatusRecord record = FileStatusIndex.forDirectory(directory).get(targetFile.getName());
+        if (record == null) {
+            logger.debug("targetFile is not in the status index");
+            return FileStatus.ELIGIBLE_TO_PROCESS;
+        }
+        return getIndexedFileStatus(targetFile, readAttributes(targetFile), record);
+    }
+
+    /**
+     * Status of a file from its record in the directory index
+     *
+     * @param targetFile - the target file
+     * @param attributes - the attributes of the target file, or null if it does not exist
+     * @param record     - the record of the target file, or null if it has not been processed
+     */
+    static FileStatus getIndexedFileStatus(File targetFile, BasicFileAttributes attributes, FileStatusRecord record) throws IOException {
+        if (record == null) {
+            return FileStatus.ELIGIBLE_TO_PROCESS;
+        }
+        if (attributes == null) {
+            return FileStatus.NOT_ELIGIBLE_TO_PROCESS;
+        }
+        if (changeDetection == ChangeDetection.CONTENT && record.getContentHash() != null) {
+            return getContentStatus(targetFile, attributes, record);
+        }
+        if (attributes.lastModifiedTime().toMillis() != record.getLastModified() || attributes.size() != record.getSize()) {
+            return FileStatus.ELIGIBLE_TO_PROCESS;
+        }
+        return FileStatus.NOT_ELIGIBLE_TO_PROCESS;
+    }
+
+    /**
+     * Status of a file by content: eligible if its size or the hash of its content differ from the record.  The
+     * content is only hashed if the size matches but the last modified time does not, and if it has not changed the
+     * new last modified time is recorded so that the next check does not hash it again.
+     */
+    private static FileStatus getContentStatus(File targetFile, BasicFileAttributes attributes, FileStatusRecord record) throws IOException {
+        if (attributes.size() != record.getSize()) {
+            return FileStatus.ELIGIBLE_TO_PROCESS;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (lastModified == record.getLastModified()) {
+            return FileStatus.NOT_ELIGIBLE_TO_PROCESS;
+        }
+        if (!record.hasContentHash(FileUtils.contentHash(targetFile))) {
+            logger.debug("targetFile content has changed");
+            return FileStatus.ELIGIBLE_TO_PROCESS;
+        }
+        logger.debug("targetFile was modified but its content has not changed");
+        writeRecord(targetFile, record.withLastModified(lastModified));
+        return FileStatus.NOT_ELIGIBLE_TO_PROCESS;
+    }
+
+    /**
+     * Record a processed file in the current status store
+     */
+    private static void writeRecord(File targetFile, FileStatusRecord record) throws IOException {
+        if (statusStore == StatusStore.DIRECTORY_INDEX) {
+            FileStatusIndex.forDirectory(targetFile.getAbsoluteFile().getParentFile().toPath()).put(targetFile.getName(), record);
+        }
+        else {
+            String statFileName = targetFile.getName() + "." + STAT_FILE_EXT;
+            FileUtils.writeStringToFile(new File(FilenameUtils.concat(targetFile.getParent(), statFileName)), record.format(), "UTF-8");
+        }
+    }
+
+    /**
+     * Returns the attributes of a file, or null if it does not exist
+     */
+    private static BasicFileAttributes readAttributes(File file) throws IOException {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,95 @@
+package com.paypal.common.utils;
+
+import java.util.Arrays;
+
+/**
+ * What a target file looked like when it was processed: its last modified time, its size and, when change detection
+ * is by content, the hash of its content.  Used by both status stores.
+ */
+final class FileStatusRecord {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private final long lastModified;
+    private final long size;
+    private final byte[] contentHash;
+
+    /**
+     * Constructor
+     *
+     * @param lastModified - the last modified time of the file when it was processed
+     * @param size         - the size of the file when it was processed
+     * @param contentHash  - the hash of the content of the file when it was processed, or null if it was not hashed
+     */
+    FileStatusRecord(long lastModified, long size, byte[] contentHash) {
+        this.lastModified = lastModified;
+        this.size = size;
+        this.contentHash = contentHash;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    byte[] getContentHash() {
+        return contentHash;
+    }
+
+    boolean hasContentHash(byte[] hash) {
+        return contentHash != null && Arrays.equals(contentHash, hash);
+    }
+
+    /**
+     * Returns a copy of this record for a file whose last modified time changed but whose content did not
+     */
+    FileStatusRecord withLastModified(long lastModified) {
+        return new FileStatusRecord(lastModified, size, contentHash);
+    }
+
+    /**
+     * Returns the record as written to a sibling .common-stat file: size, last modified time and hex content hash
+     */
+    String format() {
+        StringBuilder text = new StringBuilder();
+        text.append(size).append(' ').append(lastModified);
+        if (contentHash != null) {
+            text.append(' ');
+            for (byte b : contentHash) {
+                text.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parse the content of a sibling .common-stat file
+     *
+     * @param text - the content of the file
+     * @return FileStatusRecord - or null if the file is empty or was not written by format, e.g. by an older version
+     */
+    static FileStatusRecord parse(String text) {
+        String[] fields = text.trim().split(" ");
+        if (fields.length < 2) {
+            return null;
+        }
+        try {
+            byte[] hash = null;
+            if (fields.length > 2) {
+                String hex = fields[2];
+                if (hex.length() % 2 != 0) {
+                    return null;
+                }
+                hash = new byte[hex.length() / 2];
+                for (int i = 0; i < hash.length; i++) {
+                    hash[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+                }
+            }
+            return new FileStatusRecord(Long.parseLong(fields[1]), Long.parseLong(fields[0]), hash);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
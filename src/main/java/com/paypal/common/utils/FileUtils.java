@@ -1,6 +1,12 @@
 package com.paypal.common.utils;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 /**
@@ -10,6 +16,7 @@ import java.util.List;
  * Time: 4:27 PM
  */
 public class FileUtils extends org.apache.commons.io.FileUtils {
+    private static final long HASH_WINDOW_SIZE = 16 * 1024 * 1024;
 
     /**
      * Recursively deletes files of a specified type withing a given folder.
@@ -30,4 +37,30 @@ public class FileUtils extends org.apache.commons.io.FileUtils {
             }
         }
     }
+
+    /**
+     * Returns the MD5 digest of a file's content.  The file is read through memory-mapped windows, so large files are
+     * hashed without copying them onto the heap.
+     * @param file - The file to hash
+     * @return byte[] - the 16 byte digest
+     */
+    public static byte[] contentHash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 is not available", e);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_WINDOW_SIZE) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_WINDOW_SIZE, size - position));
+                digest.update(window);
+            }
+        } finally {
+            channel.close();
+        }
+        return digest.digest();
+    }
 }
@@ -156,6 +156,46 @@ public enum PropertyManager {
         return Boolean.parseBoolean(propValue);
     }
 
+    /**
+     * Returns the int value of a property, or the default value if the property is missing or is not a valid int
+     * @param propertyName
+     * @param defaultValue
+     * @return int
+     */
+    public int getIntProperty(String propertyName, int defaultValue) {
+        String propValue = getProperty(propertyName);
+        if(propValue == null || propValue.trim().isEmpty()){
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(propValue.trim());
+        }
+        catch (NumberFormatException e) {
+            logger.warn("Property " + propertyName + " is not a valid int: " + propValue + ". Using default value " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the long value of a property, or the default value if the property is missing or is not a valid long
+     * @param propertyName
+     * @param defaultValue
+     * @return long
+     */
+    public long getLongProperty(String propertyName, long defaultValue) {
+        String propValue = getProperty(propertyName);
+        if(propValue == null || propValue.trim().isEmpty()){
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(propValue.trim());
+        }
+        catch (NumberFormatException e) {
+            logger.warn("Property " + propertyName + " is not a valid long: " + propValue + ". Using default value " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     public boolean isLoaded(){
         return properties != null;
     }
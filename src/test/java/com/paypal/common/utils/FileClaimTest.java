@@ -0,0 +1,89 @@
+package com.paypal.common.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class FileClaimTest {
+    private static final long LEASE_TIME_IN_MS = 60000;
+    private Path directory;
+    private File targetFile;
+    private Path claimFile;
+
+    @BeforeMethod
+    public void createTargetFile() throws IOException {
+        directory = Files.createTempDirectory("file-claim");
+        targetFile = Files.write(directory.resolve("in.csv"), "data".getBytes("UTF-8")).toFile();
+        claimFile = FileClaim.getClaimFile(targetFile);
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void heldClaimIsNotTakenOver() throws IOException {
+        FileClaim claim = FileClaim.tryClaim(targetFile, LEASE_TIME_IN_MS);
+        assertNotNull(claim);
+        try {
+            assertNull(FileClaim.tryClaim(targetFile, LEASE_TIME_IN_MS));
+            assertTrue(claim.renew());
+            assertEquals(directory.toFile().list().length, 2);
+        } finally {
+            claim.release();
+        }
+        assertFalse(Files.exists(claimFile));
+    }
+
+    @Test
+    public void expiredClaimIsTakenOver() throws IOException {
+        FileClaim expired = FileClaim.tryClaim(targetFile, LEASE_TIME_IN_MS);
+        assertNotNull(expired);
+        //the heartbeat of a worker that died
+        Files.setLastModifiedTime(claimFile, FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE_TIME_IN_MS));
+
+        FileClaim claim = FileClaim.tryClaim(targetFile, LEASE_TIME_IN_MS);
+        assertNotNull(claim);
+        try {
+            assertTrue(claim.isValid());
+            assertFalse(expired.renew());
+            assertFalse(expired.isValid());
+            //the old claim was moved aside and deleted, not left next to the target file
+            assertEquals(directory.toFile().list().length, 2);
+            assertTrue(claim.renew());
+        } finally {
+            claim.release();
+            expired.release();
+        }
+        assertFalse(Files.exists(claimFile));
+    }
+
+    @Test
+    public void leaseTimeIsReadFromTheClaim() throws IOException {
+        FileClaim claim = FileClaim.tryClaim(targetFile, 3 * LEASE_TIME_IN_MS);
+        assertNotNull(claim);
+        try {
+            //expired for a worker with a shorter lease time, but not for the one that holds the claim
+            Files.setLastModifiedTime(claimFile, FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE_TIME_IN_MS));
+            assertNull(FileClaim.tryClaim(targetFile, LEASE_TIME_IN_MS));
+            assertTrue(Files.exists(claimFile));
+            assertTrue(claim.renew());
+        } finally {
+            claim.release();
+        }
+    }
+}
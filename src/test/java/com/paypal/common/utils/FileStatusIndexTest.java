@@ -0,0 +1,95 @@
+package com.paypal.common.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class FileStatusIndexTest {
+    private Path directory;
+    private Path journal;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("file-status-index");
+        journal = directory.resolve(FileStatusIndex.INDEX_FILE_NAME);
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void tornRecordIsDroppedBeforeTheNextAppend() throws IOException {
+        FileStatusIndex writer = new FileStatusIndex(directory);
+        writer.put("a.csv", new FileStatusRecord(1, 10, null));
+        //the length of a record whose payload was never written, as left by a crash
+        Files.write(journal, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        FileStatusIndex reader = new FileStatusIndex(directory);
+        assertEquals(reader.getRecords().size(), 1);
+        assertNotNull(reader.get("a.csv"));
+
+        //appended over the torn record, or it would be read as part of it
+        reader.put("b.csv", new FileStatusRecord(2, 20, null));
+        Map<String, FileStatusRecord> records = new FileStatusIndex(directory).getRecords();
+        assertEquals(records.size(), 2);
+        assertEquals(records.get("b.csv").getLastModified(), 2);
+    }
+
+    @Test
+    public void supersededRecordsAreCompacted() throws IOException {
+        FileStatusIndex index = new FileStatusIndex(directory);
+        index.put("kept.csv", new FileStatusRecord(1, 10, null));
+        index.put("removed.csv", new FileStatusRecord(1, 10, null));
+        index.remove("removed.csv");
+        for (int i = 0; i < 3000; i++) {
+            index.put("updated.csv", new FileStatusRecord(i, i, new byte[]{1, 2, 3}));
+        }
+        assertTrue(Files.size(journal) < 1024 * 64, "the journal was not compacted: " + Files.size(journal) + " bytes");
+
+        Map<String, FileStatusRecord> records = new FileStatusIndex(directory).getRecords();
+        assertEquals(records.size(), 2);
+        assertNotNull(records.get("kept.csv"));
+        assertNull(records.get("removed.csv"));
+        assertEquals(records.get("updated.csv").getLastModified(), 2999);
+    }
+
+    @Test
+    public void compactionByAnotherProcessIsReadFromTheStart() throws IOException {
+        FileStatusIndex reader = new FileStatusIndex(directory);
+        FileStatusIndex writer = new FileStatusIndex(directory);
+        for (int i = 0; i < 200; i++) {
+            writer.put("old" + i + ".csv", new FileStatusRecord(i, i, null));
+        }
+        assertEquals(reader.getRecords().size(), 200);
+
+        //compact, then grow the new journal past the reader's position in the old one
+        for (int i = 0; i < 1500; i++) {
+            writer.put("old0.csv", new FileStatusRecord(i, i, null));
+        }
+        for (int i = 0; i < 200; i++) {
+            writer.remove("old" + i + ".csv");
+        }
+        for (int i = 0; i < 400; i++) {
+            writer.put("new" + i + ".csv", new FileStatusRecord(i, i, null));
+        }
+
+        Map<String, FileStatusRecord> records = reader.getRecords();
+        assertEquals(records.size(), 400);
+        assertNull(records.get("old5.csv"));
+        assertNotNull(records.get("new399.csv"));
+    }
+}